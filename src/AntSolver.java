@@ -33,15 +33,35 @@ public class AntSolver {
     /** Best route coefficient */
     public double p_brc = 0.4;
 
+    /**
+     * Number of nearest neighbours an ant chooses between before considering every city
+     * (0 always considers every city unless p_delaunay is set)
+     */
+    public int p_candidates = 0;
+
+    /** Whether ants also choose between the Delaunay neighbours of their city first */
+    public boolean p_delaunay = false;
+
+    /**
+     * Local search applied to the best tour of each cycle before trail is laid, e.g. an
+     * {@link OrOpt} (null for none)
+     */
+    public LocalSearch p_localSearch = null;
+
 
     //// Private variables ////
     private TSP tsp;
     private ArrayList<Ant> ants = new ArrayList<>();
-    private double         trail[][]; // Pheromone trail matrix
+    private double         trail[][]; // Pheromone trail matrix (null if off-heap)
+    private OffHeapArray   offHeapTrail; // Row-major pheromone trail matrix outside the Java heap
     private int            bestTour[];
     private double         bestTourCost = Double.MAX_VALUE;
     private Random         random = new Random();
     private int            cycle = 0;
+    private CandidateSet   candidates; // null unless p_candidates > 0 or p_delaunay
+    private double         candidateInverse[]; // 1/cost of each candidate edge
+    private int            candidatesK = -1; // settings the candidates were built for
+    private boolean        candidatesDelaunay;
 
 
     /**
@@ -49,16 +69,15 @@ public class AntSolver {
      */
     private class Ant {
         private TSP    tsp;
-        private double trail[][];
 
         public int     tour[];
         public boolean tabu[];
         public int     tourIndex = 1;
         public int     startingCity;
+        private double tourCost = -1; // computed once the tour is complete
 
-        public Ant(TSP tsp, double[][] trail) {
+        public Ant(TSP tsp) {
             this.tsp   = tsp;
-            this.trail = trail;
 
             tour = new int[tsp.size()];
             tabu = new boolean[tsp.size()];
@@ -74,16 +93,27 @@ public class AntSolver {
             }
         }
         private void move() {
-            // Calculate the probability of visiting each city
             int currentCity = tour[tourIndex-1];
+            if (candidates != null && moveToCandidate(currentCity)) {
+                return;
+            }
+
+            // Calculate the probability of visiting each city
             double probability[] = new double[tsp.size()];
             double sum = 0.0;
             for (int city = 0; city < tsp.size(); city++) {
                 if (tabu[city]) { // Never visit a city we already have
                     probability[city] = 0.0;
                 } else {
-                    double trailStrength = trail[currentCity][city];
-                    double visibility    = 1.0 / tsp.cost(currentCity, city);
+                    double cost = tsp.cost(currentCity, city);
+                    if (cost == 0.0) {
+                        // A coincident city (unless tsp.dedup merged them) costs nothing to visit
+                        // now, and its infinite visibility would swamp the probabilities
+                        visit(city);
+                        return;
+                    }
+                    double trailStrength = getTrail(currentCity, city);
+                    double visibility    = 1.0 / cost;
                     double p = pow(trailStrength, p_alpha) * pow(visibility, p_beta);
                     sum += p;
                     probability[city] = p;
@@ -106,22 +136,97 @@ public class AntSolver {
             }
 
             // Then move to the chosen city
-            tour[tourIndex] = destCity;
-            tabu[destCity]  = true;
+            visit(destCity);
+        }
+
+        /**
+         * Moves to one of the unvisited candidate neighbours of the current city, chosen with the
+         * same probabilities as {@link #move()} restricted to those neighbours
+         * @return false if every neighbour has already been visited
+         */
+        private boolean moveToCandidate(int currentCity) {
+            int k = candidates.degree(currentCity);
+            int[] neighbours = candidates.getTargets();
+            int first = candidates.getOffsets()[currentCity];
+            double weight[] = new double[k];
+            double sum = 0.0;
+            for (int i = 0; i < k; i++) {
+                int city = neighbours[first + i];
+                if (!tabu[city]) {
+                    double visibility    = candidateInverse[first + i];
+                    if (Double.isInfinite(visibility)) {
+                        visit(city); // coincident, as in move()
+                        return true;
+                    }
+                    double trailStrength = getTrail(currentCity, city);
+                    weight[i] = pow(trailStrength, p_alpha) * pow(visibility, p_beta);
+                    sum += weight[i];
+                }
+            }
+            if (sum == 0.0) {
+                return false;
+            }
+
+            double p = random.nextDouble() * sum;
+            int last = -1;
+            for (int i = 0; i < k; i++) {
+                if (weight[i] > 0) {
+                    last = i;
+                    p -= weight[i];
+                    if (p <= 0) {
+                        break;
+                    }
+                }
+            }
+            visit(neighbours[first + last]);
+            return true;
+        }
+
+        private void visit(int city) {
+            tour[tourIndex] = city;
+            tabu[city]      = true;
             tourIndex++;
         }
 
         public double getTourCost() {
-            return tsp.cost(tour);
+            if (tourCost < 0) {
+                tourCost = tsp.cost(tour);
+            }
+            return tourCost;
+        }
+
+        public void setTourCost(double cost) {
+            tourCost = cost;
         }
     }
 
 
 
     //// Constructor ////
+    /**
+     * Creates a solver. The trail matrix is kept off-heap if the TSP's distances are.
+     * @throws UncheckedIOException if an off-heap trail matrix can't be mapped
+     */
     public AntSolver(TSP tsp) {
+        this(tsp, tsp.getDistanceMode() == TSP.DistanceMode.OFF_HEAP);
+    }
+
+    /**
+     * @param offHeap whether to keep the trail matrix outside the Java heap, memory-mapped
+     *                under the <code>tsp.offheap.dir</code> directory if that property is set
+     * @throws UncheckedIOException if an off-heap trail matrix can't be mapped
+     */
+    public AntSolver(TSP tsp, boolean offHeap) {
         this.tsp = tsp;
-        trail = new double[tsp.size()][tsp.size()];
+        if (offHeap) {
+            try {
+                offHeapTrail = OffHeapArray.create((long) tsp.size() * tsp.size(), System.getProperty("tsp.offheap.dir"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            trail = new double[tsp.size()][tsp.size()];
+        }
     }
 
     //// Public methods ////
@@ -133,6 +238,10 @@ public class AntSolver {
         cycle = 0;
 
         // Clear trails
+        if (offHeapTrail != null) {
+            offHeapTrail.fill(p_initTrail);
+            return;
+        }
         for (int i = 0; i < tsp.size(); i++) {
             for (int j = 0; j < tsp.size(); j++) {
                 trail[i][j] = p_initTrail;
@@ -147,19 +256,20 @@ public class AntSolver {
         cycle++;
         setupAnts();
         doAntTours();
+        improveCycleBest();
         doPheromoneTrailEvaporation();
         applyAntPheromoneTrail();
         updateBestTour();
     }
 
     /**
-     * Saves the best tour to a file
+     * Saves the best tour to a file, numbering the cities as in the TSP's file
      * @param path the path of the file to save to
      * @throws IOException
      */
     public void saveBestTour(String path) throws IOException {
         PrintWriter fh = new PrintWriter(new FileOutputStream(path));
-        for (int city : bestTour) {
+        for (int city : tsp.toOriginal(bestTour)) {
             fh.println(city);
         }
         fh.close();
@@ -170,21 +280,63 @@ public class AntSolver {
     //// Private methods ////
     private void setupAnts() {
         int numAnts = (int) (p_antfac * tsp.size());
+        setupCandidates();
 
         // Place ants on cities randomly
         ants = new ArrayList<>();
         for (int i = 0; i < numAnts; i++) {
-            ants.add(new Ant(tsp, trail));
+            ants.add(new Ant(tsp));
+        }
+    }
+
+    private void setupCandidates() {
+        if (p_candidates <= 0 && !p_delaunay) {
+            candidates = null;
+            return;
+        }
+        if (candidates == null || candidatesK != p_candidates || candidatesDelaunay != p_delaunay) {
+            candidates         = tsp.getCandidateSet(p_candidates, p_delaunay);
+            candidateInverse   = tsp.getCandidateCosts(candidates).getInverseCosts();
+            candidatesK        = p_candidates;
+            candidatesDelaunay = p_delaunay;
         }
     }
 
     private void doAntTours() {
         // Move all ants until they've all completed a full tour
         ants.parallelStream().forEach(Ant::doTour);
+
+        // Then cost all the tours in one batch
+        int[][] tours = new int[ants.size()][];
+        for (int i = 0; i < tours.length; i++) {
+            tours[i] = ants.get(i).tour;
+        }
+        double[] costs = tsp.cost(tours);
+        for (int i = 0; i < tours.length; i++) {
+            ants.get(i).setTourCost(costs[i]);
+        }
+    }
+
+    private void improveCycleBest() {
+        if (p_localSearch == null || ants.isEmpty()) {
+            return;
+        }
+        Ant best = ants.get(0);
+        for (Ant ant : ants) {
+            if (ant.getTourCost() < best.getTourCost()) {
+                best = ant;
+            }
+        }
+        best.tour = p_localSearch.optimize(best.tour);
+        best.setTourCost(tsp.cost(best.tour));
     }
 
     private void doPheromoneTrailEvaporation() {
         // Pheromone trail evaporation
+        if (offHeapTrail != null) {
+            offHeapTrail.scale(1 - p_evap);
+            return;
+        }
         for (int i = 0; i < tsp.size(); i++) {
             for (int j = 0; j < tsp.size(); j++) {
                 trail[i][j] *= (1 - p_evap);
@@ -212,6 +364,11 @@ public class AntSolver {
      * @param amount of trail to deposit
      */
     private void depositEdgeTrail(int i, int j, double amount) {
+        if (offHeapTrail != null) {
+            offHeapTrail.add((long) i * tsp.size() + j, amount);
+            offHeapTrail.add((long) j * tsp.size() + i, amount);
+            return;
+        }
         trail[i][j] += amount;
         trail[j][i] += amount;
     }
@@ -269,6 +426,9 @@ public class AntSolver {
         }
     }
     public double getTrail(int i, int j) {
+        if (offHeapTrail != null) {
+            return offHeapTrail.get((long) i * tsp.size() + j);
+        }
         return trail[i][j];
     }
     public int getCycle() {
@@ -283,6 +443,11 @@ public class AntSolver {
     public static void main(String[] args) throws IOException {
         TSP          tsp = new TSP(args[0]);
         AntSolver solver = new AntSolver(tsp);
+        System.out.println("Loaded " + tsp);
+        String localSearch = System.getProperty("tsp.localsearch");
+        if (localSearch != null) {
+            solver.p_localSearch = LocalSearch.create(localSearch, tsp);
+        }
 
         int maxCycles = 50000;
 
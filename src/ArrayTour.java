@@ -0,0 +1,91 @@
+/**
+ * A {@link Tour} kept as an array of cities plus the position of each city.
+ * Queries are O(1); a reversal costs O(n) in the worst case, but only ever reverses the shorter
+ * of the two paths it could, so it never moves more than n/2 cities.
+ */
+public class ArrayTour implements Tour {
+    private final int n;
+    private final int[] order; // cities in tour order
+    private final int[] pos;   // position of each city in order
+
+    /**
+     * @param tour the cities in tour order (copied)
+     */
+    public ArrayTour(int[] tour) {
+        n = tour.length;
+        order = tour.clone();
+        pos = new int[n];
+        for (int i = 0; i < n; i++) {
+            pos[order[i]] = i;
+        }
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int next(int city) {
+        int i = pos[city] + 1;
+        return order[i == n ? 0 : i];
+    }
+
+    @Override
+    public int prev(int city) {
+        int i = pos[city];
+        return order[i == 0 ? n - 1 : i - 1];
+    }
+
+    @Override
+    public boolean between(int a, int b, int c) {
+        int pa = pos[a], pb = pos[b], pc = pos[c];
+        if (pa <= pc) {
+            return pa <= pb && pb <= pc;
+        }
+        return pb >= pa || pb <= pc;
+    }
+
+    /**
+     * @return the position of a city in the tour
+     */
+    public int pos(int city) {
+        return pos[city];
+    }
+
+    /**
+     * @return the city at a position in the tour
+     */
+    public int at(int position) {
+        return order[position];
+    }
+
+    @Override
+    public void reverse(int from, int to) {
+        int i = pos[from], j = pos[to];
+        int len = j - i;
+        if (len < 0) {
+            len += n;
+        }
+        len++; // cities on the path
+        if (2 * len > n) {
+            // Reverse the complement instead
+            int t = i;
+            i = j + 1 == n ? 0 : j + 1;
+            j = t == 0 ? n - 1 : t - 1;
+            len = n - len;
+        }
+        for (int s = 0; s < len / 2; s++) {
+            int a = order[i], b = order[j];
+            order[i] = b; pos[b] = i;
+            order[j] = a; pos[a] = j;
+            if (++i == n) i = 0;
+            if (--j < 0) j = n - 1;
+        }
+    }
+
+    @Override
+    public int[] toArray() {
+        return order.clone();
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of derived per-instance data (cost matrices, neighbour lists, ...) stored as
+ * {@link TSPBinary} files and keyed by a hash of the instance's coordinates, so that it survives
+ * renaming or reformatting the instance file.
+ *
+ * Every entry also carries the coordinates it was built from, which are compared with the instance
+ * on lookup. Entries are evicted least recently used first once the directory grows past its limit.
+ *
+ * The default cache is configured with the <code>tsp.cache.dir</code> system property and
+ * <code>tsp.cache.max</code> (megabytes, default 2048); without a directory there is no cache.
+ */
+public class ArtifactCache {
+    private static final String SUFFIX = TSPBinary.EXTENSION;
+
+    private static ArtifactCache defaultCache;
+    private static boolean defaultLoaded = false;
+
+    private final File dir;
+    private final long maxBytes;
+
+    /**
+     * @param dir the cache directory, created if needed
+     * @param maxBytes the size above which old entries are evicted
+     */
+    public ArtifactCache(String dir, long maxBytes) {
+        this.dir = new File(dir);
+        this.maxBytes = maxBytes;
+        this.dir.mkdirs();
+    }
+
+    /**
+     * @return the cache configured by system properties, or null if caching is disabled
+     */
+    public static synchronized ArtifactCache getDefault() {
+        if (!defaultLoaded) {
+            String dir = System.getProperty("tsp.cache.dir");
+            if (dir != null) {
+                defaultCache = new ArtifactCache(dir, Long.getLong("tsp.cache.max", 2048) << 20);
+            }
+            defaultLoaded = true;
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @return a hex SHA-256 digest of the coordinates
+     */
+    public static String key(int[] xs, int[] ys) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buf = ByteBuffer.allocate(xs.length * 8);
+            buf.asIntBuffer().put(xs).put(ys);
+            byte[] hash = digest.digest(buf.array());
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    private File file(String key, String artifact) {
+        return new File(dir, key + "-" + artifact + SUFFIX);
+    }
+
+    /**
+     * Opens a cached artifact. Entries that are unreadable, fail to parse in any way or were built
+     * from other coordinates are deleted, so the caller rebuilds them.
+     * @param tsp the instance the artifact belongs to
+     * @param artifact the name of the artifact, e.g. "cost_float"
+     * @return the mapped entry, or null on a miss
+     */
+    public TSPBinary load(TSP tsp, String artifact) {
+        File file = file(tsp.getContentKey(), artifact);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            TSPBinary bin = new TSPBinary(file.getPath());
+            if (bin.size() == tsp.size() && sameCoords(bin, tsp)) {
+                file.setLastModified(System.currentTimeMillis()); // for LRU eviction
+                return bin;
+            }
+        } catch (IOException | RuntimeException e) {
+            // fall through and drop the entry
+        }
+        file.delete();
+        return null;
+    }
+
+    private static boolean sameCoords(TSPBinary bin, TSP tsp) {
+        for (int i = 0; i < tsp.size(); i++) {
+            if (bin.getXs()[i] != tsp.getX(i) || bin.getYs()[i] != tsp.getY(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the TSP's coordinates and the given artifacts as a cache entry, then evicts old
+     * entries if the cache is over its limit. Failures only lose the entry.
+     * @param tsp the instance to store
+     * @param artifact the name of the artifact
+     * @param cost the cost matrix to store, a {@link PackedCostMatrix} or {@link FullCostMatrix}, or null
+     * @param neighbours the neighbour lists to store, or null
+     * @param kdTree the spatial index to store, or null
+     */
+    public void store(TSP tsp, String artifact, CostMatrix cost, NeighbourLists neighbours, KdTree kdTree) {
+        File target = file(tsp.getContentKey(), artifact);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp", ".part", dir);
+            TSPBinary.write(tsp, tmp.getPath(), cost, neighbours, kdTree);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Couldn't cache " + target + ": " + e.getMessage());
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits in its limit
+     */
+    private synchronized void evict() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length && total > maxBytes; i++) {
+            total -= entries[i].length();
+            entries[i].delete();
+        }
+    }
+}
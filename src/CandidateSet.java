@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * A sparse set of candidate edges: for every city, the cities it is worth connecting to, nearest
+ * first. Stored in compressed sparse row form, so cities may have different numbers of candidates:
+ * the candidates of city i are targets[offsets[i]] to targets[offsets[i+1]-1].
+ */
+public class CandidateSet {
+    private final int[] offsets;
+    private final int[] targets;
+
+    /**
+     * Builds a candidate set from per-city lists, which are sorted by distance and deduplicated
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @param adjacency the candidates of each city, in any order
+     */
+    public CandidateSet(int[] xs, int[] ys, int[][] adjacency) {
+        int n = adjacency.length;
+        int total = 0;
+        for (int[] row : adjacency) {
+            total += row.length;
+        }
+        offsets = new int[n + 1];
+        int[] targets = new int[total];
+        int t = 0;
+        double[] dist = new double[0];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = t;
+            int[] row = adjacency[i];
+            if (dist.length < row.length) {
+                dist = new double[row.length];
+            }
+
+            // Insertion sort by (distance, index): rows are short
+            int start = t;
+            for (int c : row) {
+                double dx = xs[c] - xs[i];
+                double dy = ys[c] - ys[i];
+                double d = dx*dx + dy*dy;
+                int j = t - start;
+                while (j > 0 && (dist[j - 1] > d || (dist[j - 1] == d && targets[start + j - 1] > c))) {
+                    dist[j] = dist[j - 1];
+                    targets[start + j] = targets[start + j - 1];
+                    j--;
+                }
+                if (j > 0 && targets[start + j - 1] == c) {
+                    // Duplicate: undo the shift
+                    for (; j < t - start; j++) {
+                        dist[j] = dist[j + 1];
+                        targets[start + j] = targets[start + j + 1];
+                    }
+                    continue;
+                }
+                dist[j] = d;
+                targets[start + j] = c;
+                t++;
+            }
+        }
+        offsets[n] = t;
+        this.targets = Arrays.copyOf(targets, t);
+    }
+
+    /**
+     * @return the union of two candidate sets over the same cities, nearest first
+     */
+    public static CandidateSet union(int[] xs, int[] ys, CandidateSet a, CandidateSet b) {
+        int n = a.size();
+        int[][] adjacency = new int[n][];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new int[a.degree(i) + b.degree(i)];
+            System.arraycopy(a.targets, a.offsets[i], adjacency[i], 0, a.degree(i));
+            System.arraycopy(b.targets, b.offsets[i], adjacency[i], a.degree(i), b.degree(i));
+        }
+        return new CandidateSet(xs, ys, adjacency);
+    }
+
+    /**
+     * Converts k-nearest neighbour lists, which are already sorted
+     */
+    public CandidateSet(NeighbourLists lists) {
+        int n = lists.size(), k = lists.getK();
+        offsets = new int[n + 1];
+        for (int i = 0; i <= n; i++) {
+            offsets[i] = i * k;
+        }
+        targets = lists.getNeighbours();
+    }
+
+    /**
+     * @return the number of candidates of a city
+     */
+    public int degree(int city) {
+        return offsets[city + 1] - offsets[city];
+    }
+
+    /**
+     * @return the i-th nearest candidate of a city (i counting from 0)
+     */
+    public int get(int city, int i) {
+        return targets[offsets[city] + i];
+    }
+
+    /**
+     * @return the number of cities
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return the start of each city's candidates in {@link #getTargets()}, plus the total at the end
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * @return the candidates of all cities, back to back (not to be modified)
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+}
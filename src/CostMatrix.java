@@ -0,0 +1,14 @@
+/**
+ * Storage backend for the symmetric inter-city cost matrix of a {@link TSP}
+ */
+public interface CostMatrix {
+    /**
+     * @return the cost of travelling between two cities
+     */
+    double get(int city1, int city2);
+
+    /**
+     * @return the approximate number of bytes used by the matrix
+     */
+    long memoryUsage();
+}
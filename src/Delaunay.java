@@ -0,0 +1,428 @@
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of the cities of a planar TSP, by a radial sweep-hull
+ * (Sinclair's s-hull, as refined in the Delaunator library).
+ *
+ * Cities are added in order of distance from a seed circle, each one attached to the visible part
+ * of the convex hull built so far and then legalised by edge flips. An angular hash of the hull
+ * makes finding the visible edge cheap, so the whole triangulation takes O(n log n) in practice.
+ *
+ * Triangles are stored as triples of city indices in clockwise order (with y pointing up).
+ * Half-edge e goes from triangles[e] to triangles[next(e)] and its twin in the adjacent triangle is
+ * halfedges[e] (-1 on the convex hull). Coincident cities are left out of the triangulation.
+ */
+public class Delaunay {
+    private final int[] xs;
+    private final int[] ys;
+    private final int n;
+
+    private int[] triangles;
+    private int[] halfedges;
+    private int trianglesLen = 0;
+
+    // Convex hull as a doubly linked list of cities, plus an angular hash of its cities
+    private final int[] hullPrev, hullNext, hullTri;
+    private final int[] hullHash;
+    private final int hashSize;
+    private int hullStart;
+    private double cx, cy; // centre of the seed triangle's circumcircle
+
+    private final int[] edgeStack = new int[512];
+
+    /**
+     * Triangulates the given points
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     */
+    public Delaunay(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+        this.n  = xs.length;
+        int maxTriangles = Math.max(2 * n - 5, 0);
+        triangles = new int[maxTriangles * 3];
+        halfedges = new int[maxTriangles * 3];
+        hashSize  = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+        hullPrev  = new int[n];
+        hullNext  = new int[n];
+        hullTri   = new int[n];
+        hullHash  = new int[hashSize];
+        triangulate();
+        triangles = Arrays.copyOf(triangles, trianglesLen);
+        halfedges = Arrays.copyOf(halfedges, trianglesLen);
+    }
+
+    private void triangulate() {
+        if (n < 3) {
+            return;
+        }
+
+        // Seed triangle: the city nearest the centre of the bounding box, its nearest neighbour,
+        // and the city making the smallest circumcircle with those two
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, xs[i]); maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]); maxY = Math.max(maxY, ys[i]);
+        }
+        double bx = (minX + maxX) / 2, by = (minY + maxY) / 2;
+
+        int i0 = 0, i1 = -1, i2 = -1;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double d = dist2(bx, by, xs[i], ys[i]);
+            if (d < minDist) {
+                i0 = i;
+                minDist = d;
+            }
+        }
+        minDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double d = dist2(xs[i0], ys[i0], xs[i], ys[i]);
+            if (i != i0 && d > 0 && d < minDist) {
+                i1 = i;
+                minDist = d;
+            }
+        }
+        if (i1 < 0) {
+            return; // all cities coincide
+        }
+        double minRadius = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (i == i0 || i == i1) {
+                continue;
+            }
+            double r = circumradius(i0, i1, i);
+            if (r < minRadius) {
+                i2 = i;
+                minRadius = r;
+            }
+        }
+        if (i2 < 0) {
+            return; // all cities are collinear: no triangles
+        }
+        if (ccw(xs[i0], ys[i0], i1, i2)) {
+            int t = i1; i1 = i2; i2 = t;
+        }
+        circumcentre(i0, i1, i2);
+
+        // Sort the cities by distance from the seed circle's centre
+        int[] ids = new int[n];
+        double[] dists = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            dists[i] = dist2(cx, cy, xs[i], ys[i]);
+        }
+        quicksort(ids, dists, 0, n - 1);
+
+        hullStart = i0;
+        hullNext[i0] = hullPrev[i2] = i1;
+        hullNext[i1] = hullPrev[i0] = i2;
+        hullNext[i2] = hullPrev[i1] = i0;
+        hullTri[i0] = 0;
+        hullTri[i1] = 1;
+        hullTri[i2] = 2;
+        Arrays.fill(hullHash, -1);
+        hullHash[hashKey(xs[i0], ys[i0])] = i0;
+        hullHash[hashKey(xs[i1], ys[i1])] = i1;
+        hullHash[hashKey(xs[i2], ys[i2])] = i2;
+        addTriangle(i0, i1, i2, -1, -1, -1);
+
+        int xp = 0, yp = 0;
+        for (int k = 0; k < n; k++) {
+            int i = ids[k];
+            int x = xs[i], y = ys[i];
+
+            // Skip coincident cities
+            if (k > 0 && x == xp && y == yp) {
+                continue;
+            }
+            xp = x;
+            yp = y;
+            if (i == i0 || i == i1 || i == i2) {
+                continue;
+            }
+
+            // Find a visible edge of the hull, starting from the hash bucket of the city's angle
+            int start = 0;
+            for (int j = 0, key = hashKey(x, y); j < hashSize; j++) {
+                start = hullHash[(key + j) % hashSize];
+                if (start != -1 && start != hullNext[start]) {
+                    break;
+                }
+            }
+            start = hullPrev[start];
+            int e = start, q;
+            while (!ccw(x, y, e, q = hullNext[e])) {
+                e = q;
+                if (e == start) {
+                    e = -1;
+                    break;
+                }
+            }
+            if (e == -1) {
+                continue; // coincident with a city already in the hull
+            }
+
+            // Add the first triangle from the city, then flip until Delaunay
+            int t = addTriangle(e, i, hullNext[e], -1, -1, hullTri[e]);
+            hullTri[i] = legalize(t + 2);
+            hullTri[e] = t;
+
+            // Walk forward along the hull, adding triangles
+            int next = hullNext[e];
+            while (ccw(x, y, next, q = hullNext[next])) {
+                t = addTriangle(next, i, q, hullTri[i], -1, hullTri[next]);
+                hullTri[i] = legalize(t + 2);
+                hullNext[next] = next; // removed from the hull
+                next = q;
+            }
+
+            // Walk backward from the other side
+            if (e == start) {
+                while (ccw(x, y, q = hullPrev[e], e)) {
+                    t = addTriangle(q, i, e, -1, hullTri[e], hullTri[q]);
+                    legalize(t + 2);
+                    hullTri[q] = t;
+                    hullNext[e] = e; // removed from the hull
+                    e = q;
+                }
+            }
+
+            hullStart = hullPrev[i] = e;
+            hullNext[e] = hullPrev[next] = i;
+            hullNext[i] = next;
+            hullHash[hashKey(x, y)] = i;
+            hullHash[hashKey(xs[e], ys[e])] = e;
+        }
+    }
+
+    /**
+     * Flips edges until the triangles around half-edge a satisfy the Delaunay condition
+     * @return the half-edge opposite a's start after flipping
+     */
+    private int legalize(int a) {
+        int i = 0;
+        int ar;
+        while (true) {
+            int b = halfedges[a];
+            int a0 = a - a % 3;
+            ar = a0 + (a + 2) % 3;
+
+            if (b == -1) { // hull edge
+                if (i == 0) {
+                    break;
+                }
+                a = edgeStack[--i];
+                continue;
+            }
+
+            int b0 = b - b % 3;
+            int al = a0 + (a + 1) % 3;
+            int bl = b0 + (b + 2) % 3;
+            int p0 = triangles[ar];
+            int pr = triangles[a];
+            int pl = triangles[al];
+            int p1 = triangles[bl];
+
+            if (inCircle(p0, pr, pl, p1)) {
+                triangles[a] = p1;
+                triangles[b] = p0;
+
+                int hbl = halfedges[bl];
+                if (hbl == -1) {
+                    // The flipped edge was on the hull; fix the hull's reference to it
+                    int e = hullStart;
+                    do {
+                        if (hullTri[e] == bl) {
+                            hullTri[e] = a;
+                            break;
+                        }
+                        e = hullPrev[e];
+                    } while (e != hullStart);
+                }
+                link(a, hbl);
+                link(b, halfedges[ar]);
+                link(ar, bl);
+
+                int br = b0 + (b + 1) % 3;
+                if (i < edgeStack.length) { // only overflows on extremely degenerate input
+                    edgeStack[i++] = br;
+                }
+            } else {
+                if (i == 0) {
+                    break;
+                }
+                a = edgeStack[--i];
+            }
+        }
+        return ar;
+    }
+
+    private void link(int a, int b) {
+        halfedges[a] = b;
+        if (b != -1) {
+            halfedges[b] = a;
+        }
+    }
+
+    private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+        int t = trianglesLen;
+        triangles[t]     = i0;
+        triangles[t + 1] = i1;
+        triangles[t + 2] = i2;
+        link(t, a);
+        link(t + 1, b);
+        link(t + 2, c);
+        trianglesLen += 3;
+        return t;
+    }
+
+    //// GEOMETRY ////
+
+    private static double dist2(double ax, double ay, double bx, double by) {
+        double dx = ax - bx;
+        double dy = ay - by;
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * @return whether the point (px, py) and cities q and r make a counter-clockwise turn
+     *         (exact for int coordinates)
+     */
+    private boolean ccw(long px, long py, int q, int r) {
+        return (xs[q] - px) * (ys[r] - py) - (xs[r] - px) * (ys[q] - py) > 0;
+    }
+
+    /**
+     * @return whether city d lies inside the circumcircle of the clockwise triangle a, b, c
+     */
+    private boolean inCircle(int a, int b, int c, int d) {
+        double dx = xs[a] - xs[d], dy = ys[a] - ys[d];
+        double ex = xs[b] - xs[d], ey = ys[b] - ys[d];
+        double fx = xs[c] - xs[d], fy = ys[c] - ys[d];
+        double ap = dx*dx + dy*dy;
+        double bp = ex*ex + ey*ey;
+        double cp = fx*fx + fy*fy;
+        return dx * (ey * cp - bp * fy) - dy * (ex * cp - bp * fx) + ap * (ex * fy - ey * fx) < 0;
+    }
+
+    private double circumradius(int a, int b, int c) {
+        double dx = xs[b] - xs[a], dy = ys[b] - ys[a];
+        double ex = xs[c] - xs[a], ey = ys[c] - ys[a];
+        double bl = dx*dx + dy*dy;
+        double cl = ex*ex + ey*ey;
+        double d = 0.5 / (dx * ey - dy * ex);
+        double x = (ey * bl - dy * cl) * d;
+        double y = (dx * cl - ex * bl) * d;
+        return x*x + y*y; // infinite or NaN (never smaller) for collinear points
+    }
+
+    private void circumcentre(int a, int b, int c) {
+        double dx = xs[b] - xs[a], dy = ys[b] - ys[a];
+        double ex = xs[c] - xs[a], ey = ys[c] - ys[a];
+        double bl = dx*dx + dy*dy;
+        double cl = ex*ex + ey*ey;
+        double d = 0.5 / (dx * ey - dy * ex);
+        cx = xs[a] + (ey * bl - dy * cl) * d;
+        cy = ys[a] + (dx * cl - ex * bl) * d;
+    }
+
+    private int hashKey(double x, double y) {
+        // Monotonic in the angle of (x, y) around the centre, in [0, 1]
+        double dx = x - cx, dy = y - cy;
+        double p = dx / (Math.abs(dx) + Math.abs(dy));
+        double angle = (dy > 0 ? 3 - p : 1 + p) / 4;
+        return (int) Math.floor(angle * hashSize) % hashSize;
+    }
+
+    private static void quicksort(int[] ids, double[] dists, int left, int right) {
+        if (right - left <= 20) {
+            for (int i = left + 1; i <= right; i++) {
+                int temp = ids[i];
+                double tempDist = dists[temp];
+                int j = i - 1;
+                while (j >= left && dists[ids[j]] > tempDist) {
+                    ids[j + 1] = ids[j];
+                    j--;
+                }
+                ids[j + 1] = temp;
+            }
+            return;
+        }
+        int median = (left + right) >> 1;
+        int i = left + 1;
+        int j = right;
+        swap(ids, median, i);
+        if (dists[ids[left]] > dists[ids[right]]) swap(ids, left, right);
+        if (dists[ids[i]] > dists[ids[right]]) swap(ids, i, right);
+        if (dists[ids[left]] > dists[ids[i]]) swap(ids, left, i);
+
+        int temp = ids[i];
+        double tempDist = dists[temp];
+        while (true) {
+            do i++; while (dists[ids[i]] < tempDist);
+            do j--; while (dists[ids[j]] > tempDist);
+            if (j < i) break;
+            swap(ids, i, j);
+        }
+        ids[left + 1] = ids[j];
+        ids[j] = temp;
+
+        if (right - i + 1 >= j - left) {
+            quicksort(ids, dists, i, right);
+            quicksort(ids, dists, left, j - 1);
+        } else {
+            quicksort(ids, dists, left, j - 1);
+            quicksort(ids, dists, i, right);
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i]; a[i] = a[j]; a[j] = t;
+    }
+
+
+    //// RESULTS ////
+
+    /**
+     * @return the triangles, as consecutive triples of city indices
+     */
+    public int[] getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * @return the twin of each half-edge, or -1 for hull edges
+     */
+    public int[] getHalfedges() {
+        return halfedges;
+    }
+
+    /**
+     * @return the Delaunay edges of every city as a candidate set, nearest first
+     */
+    public CandidateSet getCandidates() {
+        int[] degree = new int[n];
+        for (int e = 0; e < trianglesLen; e++) {
+            if (halfedges[e] < e) { // count each edge once
+                degree[triangles[e]]++;
+                degree[triangles[e % 3 == 2 ? e - 2 : e + 1]]++;
+            }
+        }
+        int[][] adjacency = new int[n][];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for (int e = 0; e < trianglesLen; e++) {
+            if (halfedges[e] < e) {
+                int a = triangles[e];
+                int b = triangles[e % 3 == 2 ? e - 2 : e + 1];
+                adjacency[a][degree[a]++] = b;
+                adjacency[b][degree[b]++] = a;
+            }
+        }
+        return new CandidateSet(xs, ys, adjacency);
+    }
+}
@@ -0,0 +1,107 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * A full n*n matrix of doubles. Every distance is stored twice, once per direction.
+ */
+public class FullCostMatrix implements CostMatrix {
+    /** Side of the square tiles the matrix is built in (64*64 doubles = 32KB per tile) */
+    private static final int TILE = 64;
+
+    private final double[][] cost;
+
+    /**
+     * Builds the matrix of Euclidean distances between the given points.
+     * The matrix is filled in parallel, one task per block of rows on the common fork-join pool.
+     * The upper triangle is computed tile by tile, then a second tiled pass mirrors it into the
+     * lower triangle so that both the rows read and the rows written stay in L2.
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     */
+    public FullCostMatrix(int[] xs, int[] ys) {
+        int n = xs.length;
+        cost = new double[n][];
+        int blocks = (n + TILE - 1) / TILE;
+
+        // Upper triangle (each task also allocates its own rows)
+        IntStream.range(0, blocks).parallel().forEach(bi -> {
+            int iMin = bi * TILE, iMax = Math.min(iMin + TILE, n);
+            for (int i = iMin; i < iMax; i++) {
+                cost[i] = new double[n];
+            }
+            for (int jMin = iMin; jMin < n; jMin += TILE) {
+                int jMax = Math.min(jMin + TILE, n);
+                for (int i = iMin; i < iMax; i++) {
+                    double[] row = cost[i];
+                    double xi = xs[i], yi = ys[i];
+                    for (int j = Math.max(jMin, i + 1); j < jMax; j++) {
+                        double dx = xi - xs[j];
+                        double dy = yi - ys[j];
+                        row[j] = Math.sqrt(dx*dx + dy*dy);
+                    }
+                }
+            }
+        });
+        mirror();
+    }
+
+    /**
+     * Loads the matrix from upper-triangular entries in the order of {@link PackedCostMatrix},
+     * as written by {@link #writeTo(ByteBuffer)}
+     * @param n the number of cities
+     * @param packed the entries, positioned at the first one
+     */
+    public FullCostMatrix(int n, ByteBuffer packed) {
+        cost = new double[n][];
+        DoubleBuffer entries = packed.asDoubleBuffer();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            cost[i] = new double[n];
+            long start = (long) i * (2 * n - i - 1) / 2;
+            entries.get((int) start, cost[i], i + 1, n - i - 1);
+        });
+        mirror();
+    }
+
+    /**
+     * Copies the upper triangle into the lower one
+     */
+    private void mirror() {
+        int n = cost.length;
+        int blocks = (n + TILE - 1) / TILE;
+        // Tasks only write their own rows and only read upper halves
+        IntStream.range(0, blocks).parallel().forEach(bi -> {
+            int iMin = bi * TILE, iMax = Math.min(iMin + TILE, n);
+            for (int jMin = 0; jMin < iMax; jMin += TILE) {
+                int jMax = Math.min(jMin + TILE, iMax);
+                for (int i = iMin; i < iMax; i++) {
+                    double[] row = cost[i];
+                    for (int j = jMin; j < Math.min(jMax, i); j++) {
+                        row[j] = cost[j][i];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the upper triangle into a buffer as doubles, row by row, for {@link TSPBinary}
+     */
+    public void writeTo(ByteBuffer out) {
+        DoubleBuffer entries = out.asDoubleBuffer();
+        for (int i = 0; i < cost.length; i++) {
+            entries.put(cost[i], i + 1, cost.length - i - 1);
+        }
+        out.position(out.position() + (int) PackedCostMatrix.entries(cost.length) * 8);
+    }
+
+    @Override
+    public double get(int city1, int city2) {
+        return cost[city1][city2];
+    }
+
+    @Override
+    public long memoryUsage() {
+        return (long) cost.length * cost.length * 8;
+    }
+}
@@ -0,0 +1,405 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static, bucketed 2-d tree over the cities of a {@link TSP}
+ * (after Bentley, "K-d trees for semidynamic point sets", 1990).
+ *
+ * Each node splits its cities at the median of the coordinate with the larger spread, down to
+ * leaves of at most {@link #BUCKET} cities. The tree answers k-nearest and fixed-radius queries
+ * (see {@link TSP#getCandidatesWithin(double)}), and through {@link Unvisited} nearest-neighbour
+ * queries over a shrinking set of cities, which is what {@link TSP#nearestNeighbourTour(int)}
+ * needs. Queries are thread-safe; each Unvisited set belongs to one thread.
+ */
+public class KdTree {
+    /** Maximum number of cities in a leaf */
+    public static final int BUCKET = 8;
+
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] perm; // city indices, grouped by leaf
+
+    // Nodes: perm[lo, hi) is the node's cities; dim is -1 for leaves
+    private int nodes = 0;
+    private int[] nodeLo, nodeHi, nodeLeft, nodeRight, nodeParent, nodeCut;
+    private byte[] nodeDim;
+    private final int[] leafOf; // leaf node containing each city
+
+    /**
+     * Builds the tree
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     */
+    public KdTree(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+        int n = xs.length;
+        perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        int maxNodes = Math.max(1, 4 * n / BUCKET + 2);
+        nodeLo     = new int[maxNodes];
+        nodeHi     = new int[maxNodes];
+        nodeLeft   = new int[maxNodes];
+        nodeRight  = new int[maxNodes];
+        nodeParent = new int[maxNodes];
+        nodeCut    = new int[maxNodes];
+        nodeDim    = new byte[maxNodes];
+        leafOf     = new int[n];
+        build(0, n, -1);
+    }
+
+    /**
+     * Restores a tree saved by {@link #writeTo(IntBuffer)}, checking that it is well formed
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @param nodes the number of nodes
+     * @param data perm, then the node fields
+     * @throws IllegalArgumentException if the data doesn't describe a tree over the cities
+     */
+    public KdTree(int[] xs, int[] ys, int nodes, IntBuffer data) {
+        this.xs = xs;
+        this.ys = ys;
+        int n = xs.length;
+        if (nodes < 1 || nodes > Math.max(1, 4 * n / BUCKET + 2) || data.remaining() != n + 7L * nodes) {
+            throw new IllegalArgumentException("bad tree size");
+        }
+        this.nodes = nodes;
+        perm       = new int[n];
+        nodeLo     = new int[nodes];
+        nodeHi     = new int[nodes];
+        nodeLeft   = new int[nodes];
+        nodeRight  = new int[nodes];
+        nodeParent = new int[nodes];
+        nodeCut    = new int[nodes];
+        nodeDim    = new byte[nodes];
+        data.get(perm).get(nodeLo).get(nodeHi).get(nodeLeft).get(nodeRight).get(nodeParent).get(nodeCut);
+        leafOf = new int[n];
+        Arrays.fill(leafOf, -1);
+        for (int i = 0; i < n; i++) {
+            if (perm[i] < 0 || perm[i] >= n || leafOf[perm[i]] >= 0) {
+                throw new IllegalArgumentException("bad permutation");
+            }
+            leafOf[perm[i]] = 0;
+        }
+        Arrays.fill(leafOf, -1);
+
+        // Children follow their parents and split their ranges, so the leaves cover every city once
+        if (nodeLo[0] != 0 || nodeHi[0] != n || nodeParent[0] != -1) {
+            throw new IllegalArgumentException("bad root");
+        }
+        for (int node = 0; node < nodes; node++) {
+            int p = nodeParent[node];
+            if (node > 0 && (p < 0 || p >= node || (nodeLeft[p] != node && nodeRight[p] != node))) {
+                throw new IllegalArgumentException("bad node " + node);
+            }
+            int lo = nodeLo[node], hi = nodeHi[node];
+            int dim = data.get();
+            if (dim == -1) {
+                if (hi - lo > BUCKET) {
+                    throw new IllegalArgumentException("bad leaf " + node);
+                }
+                nodeDim[node] = -1;
+                for (int i = lo; i < hi; i++) {
+                    leafOf[perm[i]] = node;
+                }
+                continue;
+            }
+            int l = nodeLeft[node], r = nodeRight[node];
+            if ((dim != 0 && dim != 1) || l <= node || r <= node || l >= nodes || r >= nodes) {
+                throw new IllegalArgumentException("bad node " + node);
+            }
+            int mid = nodeLo[r];
+            if (nodeParent[l] != node || nodeParent[r] != node || mid <= lo || mid >= hi
+                    || nodeLo[l] != lo || nodeHi[l] != mid || nodeHi[r] != hi) {
+                throw new IllegalArgumentException("bad node " + node);
+            }
+            nodeDim[node] = (byte) dim;
+        }
+        for (int c = 0; c < n; c++) {
+            if (leafOf[c] < 0) {
+                throw new IllegalArgumentException("city " + c + " is in no leaf");
+            }
+        }
+    }
+
+    /**
+     * @return the number of ints {@link #writeTo(IntBuffer)} writes
+     */
+    public long serializedSize() {
+        return perm.length + 7L * nodes;
+    }
+
+    /**
+     * @return the number of nodes, which {@link TSPBinary} stores as the section parameter
+     */
+    public int nodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Writes perm and then each node field in turn, for {@link TSPBinary}
+     */
+    public void writeTo(IntBuffer out) {
+        out.put(perm);
+        for (int[] field : new int[][] { nodeLo, nodeHi, nodeLeft, nodeRight, nodeParent, nodeCut }) {
+            out.put(field, 0, nodes);
+        }
+        for (int node = 0; node < nodes; node++) {
+            out.put(nodeDim[node]);
+        }
+    }
+
+    private int build(int lo, int hi, int parent) {
+        int node = nodes++;
+        nodeLo[node] = lo;
+        nodeHi[node] = hi;
+        nodeParent[node] = parent;
+        if (hi - lo <= BUCKET) {
+            nodeDim[node] = -1;
+            for (int i = lo; i < hi; i++) {
+                leafOf[perm[i]] = node;
+            }
+            return node;
+        }
+
+        // Split on the dimension with the larger spread
+        int xMin = Integer.MAX_VALUE, xMax = Integer.MIN_VALUE, yMin = Integer.MAX_VALUE, yMax = Integer.MIN_VALUE;
+        for (int i = lo; i < hi; i++) {
+            int c = perm[i];
+            xMin = Math.min(xMin, xs[c]); xMax = Math.max(xMax, xs[c]);
+            yMin = Math.min(yMin, ys[c]); yMax = Math.max(yMax, ys[c]);
+        }
+        int dim = (long) xMax - xMin >= (long) yMax - yMin ? 0 : 1;
+        int[] coord = dim == 0 ? xs : ys;
+        int mid = (lo + hi) >>> 1;
+        select(coord, lo, hi - 1, mid);
+
+        nodeDim[node] = (byte) dim;
+        nodeCut[node] = coord[perm[mid]];
+        nodeLeft[node]  = build(lo, mid, node);
+        nodeRight[node] = build(mid, hi, node);
+        return node;
+    }
+
+    /**
+     * Quickselect: rearranges perm[lo..hi] so that perm[k] holds the city with the k-th smallest
+     * coordinate, with smaller or equal ones before it and larger or equal ones after it
+     */
+    private void select(int[] coord, int lo, int hi, int k) {
+        while (hi > lo) {
+            int pivot = coord[perm[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coord[perm[i]] < pivot) i++;
+                while (coord[perm[j]] > pivot) j--;
+                if (i <= j) {
+                    int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+                    i++; j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the squared distance between a city and a point
+     */
+    private double dist2(int city, double x, double y) {
+        double dx = xs[city] - x;
+        double dy = ys[city] - y;
+        return dx*dx + dy*dy;
+    }
+
+
+    //// K-NEAREST ////
+
+    /**
+     * Finds the k cities nearest to a city, not counting the city itself
+     * @param city the query city
+     * @param k the number of neighbours wanted
+     * @param out receives the neighbours, nearest first (length at least k)
+     * @return the number of neighbours found, min(k, n-1)
+     */
+    public int nearest(int city, int k, int[] out) {
+        return nearest(xs[city], ys[city], k, city, out);
+    }
+
+    /**
+     * Finds the k cities nearest to a point
+     * @param exclude a city to leave out of the results, or -1
+     * @param out receives the cities, nearest first (length at least k)
+     * @return the number of cities found
+     */
+    public int nearest(double x, double y, int k, int exclude, int[] out) {
+        if (k <= 0) {
+            return 0;
+        }
+        double[] best = new double[k];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        int[] found = { 0 };
+        nearest(0, x, y, k, exclude, out, best, found);
+        return found[0];
+    }
+
+    private void nearest(int node, double x, double y, int k, int exclude, int[] out, double[] best, int[] found) {
+        if (nodeDim[node] < 0) {
+            for (int i = nodeLo[node]; i < nodeHi[node]; i++) {
+                int c = perm[i];
+                if (c == exclude) {
+                    continue;
+                }
+                double d = dist2(c, x, y);
+                if (d < best[k - 1] || found[0] < k) {
+                    // Insertion into the sorted result list
+                    int j = Math.min(found[0], k - 1);
+                    while (j > 0 && best[j - 1] > d) {
+                        best[j] = best[j - 1];
+                        out[j]  = out[j - 1];
+                        j--;
+                    }
+                    best[j] = d;
+                    out[j]  = c;
+                    if (found[0] < k) {
+                        found[0]++;
+                    }
+                }
+            }
+            return;
+        }
+        double diff = (nodeDim[node] == 0 ? x : y) - nodeCut[node];
+        int near = diff < 0 ? nodeLeft[node] : nodeRight[node];
+        int far  = diff < 0 ? nodeRight[node] : nodeLeft[node];
+        nearest(near, x, y, k, exclude, out, best, found);
+        if (diff * diff < best[k - 1]) {
+            nearest(far, x, y, k, exclude, out, best, found);
+        }
+    }
+
+
+    //// FIXED RADIUS ////
+
+    /**
+     * Calls <code>action</code> for every city within distance r of a point, in no particular order
+     */
+    public void forEachWithin(double x, double y, double r, IntConsumer action) {
+        within(0, x, y, r, r * r, action);
+    }
+
+    private void within(int node, double x, double y, double r, double r2, IntConsumer action) {
+        if (nodeDim[node] < 0) {
+            for (int i = nodeLo[node]; i < nodeHi[node]; i++) {
+                if (dist2(perm[i], x, y) <= r2) {
+                    action.accept(perm[i]);
+                }
+            }
+            return;
+        }
+        double q = nodeDim[node] == 0 ? x : y;
+        if (q - r <= nodeCut[node]) {
+            within(nodeLeft[node], x, y, r, r2, action);
+        }
+        if (q + r >= nodeCut[node]) {
+            within(nodeRight[node], x, y, r, r2, action);
+        }
+    }
+
+
+    //// NEAREST UNVISITED ////
+
+    /**
+     * @return a new set containing every city, for nearest-unvisited queries
+     */
+    public Unvisited unvisited() {
+        return new Unvisited();
+    }
+
+    /**
+     * A set of cities that shrinks as they are visited. Subtrees left empty are skipped by the
+     * search, so finding the nearest remaining city stays cheap as the set empties.
+     */
+    public class Unvisited {
+        private final int[] remaining = new int[nodes]; // cities left under each node
+        private final boolean[] visited = new boolean[xs.length];
+        private int size = xs.length;
+
+        private Unvisited() {
+            for (int node = 0; node < nodes; node++) {
+                remaining[node] = nodeHi[node] - nodeLo[node];
+            }
+        }
+
+        /**
+         * Removes a city from the set (no-op if already removed)
+         */
+        public void remove(int city) {
+            if (visited[city]) {
+                return;
+            }
+            visited[city] = true;
+            size--;
+            for (int node = leafOf[city]; node >= 0; node = nodeParent[node]) {
+                remaining[node]--;
+            }
+        }
+
+        /**
+         * @return whether a city is still in the set
+         */
+        public boolean contains(int city) {
+            return !visited[city];
+        }
+
+        /**
+         * @return the number of cities in the set
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the city in the set nearest to the given city, or -1 if the set is empty
+         */
+        public int nearest(int city) {
+            double[] best = { Double.POSITIVE_INFINITY };
+            int[] result = { -1 };
+            if (remaining[0] > 0) {
+                search(0, xs[city], ys[city], best, result);
+            }
+            return result[0];
+        }
+
+        private void search(int node, double x, double y, double[] best, int[] result) {
+            if (nodeDim[node] < 0) {
+                for (int i = nodeLo[node]; i < nodeHi[node]; i++) {
+                    int c = perm[i];
+                    if (!visited[c]) {
+                        double d = dist2(c, x, y);
+                        if (d < best[0]) {
+                            best[0] = d;
+                            result[0] = c;
+                        }
+                    }
+                }
+                return;
+            }
+            double diff = (nodeDim[node] == 0 ? x : y) - nodeCut[node];
+            int near = diff < 0 ? nodeLeft[node] : nodeRight[node];
+            int far  = diff < 0 ? nodeRight[node] : nodeLeft[node];
+            if (remaining[near] > 0) {
+                search(near, x, y, best, result);
+            }
+            if (remaining[far] > 0 && diff * diff < best[0]) {
+                search(far, x, y, best, result);
+            }
+        }
+    }
+}
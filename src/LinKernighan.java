@@ -0,0 +1,187 @@
+import java.io.*;
+
+/**
+ * Lin-Kernighan variable-depth local search (Lin and Kernighan, 1973, in the 2-opt move form of
+ * Johnson and McGeoch, "The traveling salesman problem: a case study in local optimization", 1997).
+ *
+ * A move starts by removing a tour edge (t1, t2). Each step then adds an edge from the free end
+ * to a nearest neighbour t3 and removes an edge (t3, t4) such that reconnecting t4 to t1 gives a
+ * tour again; that is a 2-opt move, applied to the tour straight away. Steps go on while the
+ * gain so far stays positive, up to {@link #MAX_DEPTH} steps, and the tour is rolled back to
+ * the best point along the way. The first levels try several neighbours ({@link #BREADTH}),
+ * backtracking if a branch doesn't pay off; deeper levels only try the most promising one.
+ */
+public class LinKernighan extends LocalSearch {
+    /** Number of alternatives tried at each level; deeper levels try one */
+    public static final int[] BREADTH = { 5, 3, 1 };
+
+    /**
+     * Default largest number of 2-opt steps in one move. Stopping at five leaves USA.tsp tours
+     * about 4% above optimal; going deeper costs little since the gain criterion ends most
+     * moves long before this.
+     */
+    public static final int MAX_DEPTH = 50;
+
+    private final int maxDepth;
+    private final int[][] candidates; // per level: t3 alternatives
+    private final double[][] scores;  // per level: how promising each alternative is
+    private int[] flips;              // applied 2-opt moves, 4 cities each
+    private int flipCount;
+    private int bestFlipCount;
+    private double bestGain;
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists
+     */
+    public LinKernighan(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists(), MAX_DEPTH);
+    }
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     * @param maxDepth the largest number of 2-opt steps in one move
+     */
+    public LinKernighan(TSP tsp, NeighbourLists neighbours, int maxDepth) {
+        super(tsp, neighbours);
+        this.maxDepth = maxDepth;
+        this.candidates = new int[maxDepth + 1][neighbours.getK()];
+        this.scores = new double[maxDepth + 1][neighbours.getK()];
+        this.flips = new int[4 * maxDepth];
+    }
+
+    /**
+     * Improves a tour until no Lin-Kernighan move shortens it
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public static int[] optimize(TSP tsp, int[] tour) {
+        return new LinKernighan(tsp).optimize(tour);
+    }
+
+    @Override
+    protected boolean improve(int t1) {
+        if (tour.size() < 8) {
+            return false;
+        }
+        for (int dir = 0; dir < 2; dir++) {
+            int t2 = dir == 0 ? tour.next(t1) : tour.prev(t1);
+            flipCount = 0;
+            bestFlipCount = 0;
+            bestGain = 0;
+            if (step(t1, t2, tsp.cost(t1, t2), 1)) {
+                // Roll back past the best point, then wake up every city whose edges changed
+                while (flipCount > bestFlipCount) {
+                    undo();
+                }
+                for (int i = 0; i < 4 * flipCount; i++) {
+                    touch(flips[i]);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One level of the search. The tour currently has the edge (t1, last), which is the one to be
+     * removed next. <code>gain</code> is the usual running LK gain G: the cost of every edge
+     * removed so far, starting with the original (t1, t2), minus the edges (last, t3) added so far.
+     * The edge (t1, last) that closes the tour at this point is not subtracted, so closing up here
+     * gains gain - cost(t1, last).
+     * @return whether an improving move was found (left applied, possibly past the best point)
+     */
+    private boolean step(int t1, int last, double gain, int level) {
+        boolean forward = tour.next(t1) == last;
+        int breadth = level <= BREADTH.length ? BREADTH[level - 1] : 1;
+
+        // Collect the neighbours of last that keep the gain positive, best first
+        int[] alternatives = candidates[level];
+        double[] score = scores[level];
+        int count = 0;
+        int k = neighbours.getK();
+        for (int i = 0; i < k; i++) {
+            int t3 = neighbours.get(last, i);
+            double g1 = gain - neighbourCosts[last * k + i];
+            if (g1 <= 0) {
+                break;
+            }
+            int t4 = forward ? tour.prev(t3) : tour.next(t3);
+            if (t3 == t1 || t4 == last || t4 == t1 || added(t3, t4)) {
+                continue;
+            }
+            // Prefer the exchange that leaves the most gain (Johnson and McGeoch)
+            double s = tsp.cost(t3, t4) - neighbourCosts[last * k + i];
+            int j = count++;
+            while (j > 0 && score[j - 1] < s) {
+                score[j] = score[j - 1];
+                alternatives[j] = alternatives[j - 1];
+                j--;
+            }
+            score[j] = s;
+            alternatives[j] = t3;
+        }
+
+        for (int a = 0; a < Math.min(breadth, count); a++) {
+            // A reversal may turn the tour round (see Tour.reverse), so the direction found above
+            // only holds until the previous alternative has been applied and undone
+            forward = tour.next(t1) == last;
+            int t3 = alternatives[a];
+            int t4 = forward ? tour.prev(t3) : tour.next(t3);
+            if (t4 == last || t4 == t1 || added(t3, t4)) {
+                continue;
+            }
+            double g2 = gain - tsp.cost(last, t3) + tsp.cost(t3, t4);
+
+            // Remove (t1, last) and (t3, t4), add (last, t3) and (t4, t1)
+            twoOptMove(last, t1, t3, t4);
+            flips[4 * flipCount]     = last;
+            flips[4 * flipCount + 1] = t1;
+            flips[4 * flipCount + 2] = t3;
+            flips[4 * flipCount + 3] = t4;
+            flipCount++;
+
+            double closed = g2 - tsp.cost(t4, t1);
+            if (closed > bestGain && improves(-closed)) {
+                bestGain = closed;
+                bestFlipCount = flipCount;
+            }
+            if (level < maxDepth) {
+                step(t1, t4, g2, level + 1);
+            }
+            if (improves(-bestGain)) {
+                return true;
+            }
+            undo();
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the edge (a, b) was added earlier in the current move
+     */
+    private boolean added(int a, int b) {
+        for (int i = 0; i < flipCount; i++) {
+            int x = flips[4 * i], y = flips[4 * i + 2]; // (last, t3)
+            if ((x == a && y == b) || (x == b && y == a)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes back the last 2-opt move of the current move
+     */
+    private void undo() {
+        flipCount--;
+        int last = flips[4 * flipCount], t1 = flips[4 * flipCount + 1];
+        int t3 = flips[4 * flipCount + 2], t4 = flips[4 * flipCount + 3];
+        twoOptMove(last, t3, t1, t4); // last t3 ... t1 t4  ->  last t1 ... t3 t4
+    }
+
+    public static void main(String args[]) throws FileNotFoundException, IOException {
+        run(args, "LK", LinKernighan::new);
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Base class of the local search engines: improves a {@link Tour} in place until no move of the
+ * engine's kind improves it any more.
+ *
+ * Only moves that add an edge from a city to one of its nearest neighbours are tried, and cities
+ * are processed from a queue with don't-look bits (Bentley, "Fast algorithms for geometric
+ * traveling salesman problems", 1992): a city leaves the queue once no improving move starts at
+ * it, and only returns when a move changes one of its tour edges. A pass over an already good
+ * tour therefore costs O(nk) rather than O(n^2). A move can also make one possible at a city whose
+ * edges it didn't touch, so when the queue empties every city is queued again, until a whole pass
+ * makes no move and the tour is locally optimal.
+ */
+public abstract class LocalSearch {
+    /** Smallest improvement accepted with real-valued costs, so rounding noise can't cause endless moves */
+    public static final double EPSILON = 1e-7;
+
+    /**
+     * Number of cities above which tours are two-level lists by default. Most reversals local
+     * search makes on a nearest-neighbour start are short, so an array's O(n) worst case only
+     * starts to cost more than the two-level list's overhead on queries at around this size.
+     */
+    public static final int TWO_LEVEL_THRESHOLD = 50000;
+
+    /**
+     * Number of cities above which tours are splay trees by default, as the two-level list's
+     * O(sqrt(n)) reversals overtake the splay tree's larger constant factor
+     */
+    public static final int SPLAY_THRESHOLD = 200000;
+
+    /** Most cities in each segment a double-bridge kick moves, so that kicks stay local */
+    public static final int KICK_SEGMENT = 50;
+
+    /** Random double bridges costed per kick, of which the least damaging is applied */
+    public static final int KICK_SAMPLES = 4;
+
+    protected final TSP tsp;
+    protected final NeighbourLists neighbours;
+    protected final double[] neighbourCosts; // cost to the i-th neighbour of a city at city * k + i
+    protected Tour tour;
+
+    private final double epsilon;
+    private int[] queue;
+    private boolean[] queued;
+    private int head, count;
+    protected long moves;
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     */
+    protected LocalSearch(TSP tsp, NeighbourLists neighbours) {
+        this.tsp = tsp;
+        this.neighbours = neighbours;
+        this.neighbourCosts = tsp.getNeighbourCosts(neighbours);
+        this.epsilon = tsp.isIntegerCost() ? 0 : EPSILON; // integer deltas are exact
+    }
+
+    /**
+     * Tries the engine's moves that start at a city, applying an improving one if there is one.
+     * Implementations call {@link #touch(int)} for the endpoints of every edge they change.
+     * @return whether the tour was changed
+     */
+    protected abstract boolean improve(int city);
+
+    /**
+     * Improves a tour
+     * @param order the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public int[] optimize(int[] order) {
+        Tour t = newTour(order);
+        optimize(t);
+        return t.toArray();
+    }
+
+    /**
+     * Creates the tour representation local search works on. The <code>tsp.tour</code> system
+     * property chooses it: array, twolevel, splay, or auto (the default), which uses an
+     * {@link ArrayTour} up to {@link #TWO_LEVEL_THRESHOLD} cities, a {@link TwoLevelTour} up to
+     * {@link #SPLAY_THRESHOLD} and a {@link SplayTour} above.
+     * @param order the cities in tour order
+     */
+    public static Tour newTour(int[] order) {
+        String type = System.getProperty("tsp.tour", "auto").toLowerCase();
+        if (type.equals("auto")) {
+            if (order.length > SPLAY_THRESHOLD) {
+                type = "splay";
+            } else if (order.length > TWO_LEVEL_THRESHOLD) {
+                type = "twolevel";
+            } else {
+                type = "array";
+            }
+        }
+        switch (type) {
+            case "array":
+                return new ArrayTour(order);
+            case "twolevel":
+                return new TwoLevelTour(order);
+            case "splay":
+                return new SplayTour(order);
+            default:
+                throw new IllegalArgumentException("Unknown tour representation: " + type);
+        }
+    }
+
+    /**
+     * Improves a tour in place until it is locally optimal
+     */
+    public void optimize(Tour tour) {
+        optimize(tour, null);
+    }
+
+    /**
+     * Improves a tour in place until no move of the engine's kind improves it, starting from some
+     * cities only. Don't-look bits only wake the cities whose own edges a move changed, so once
+     * the queue empties every city is looked at again, until a whole pass finds nothing. For a
+     * tour already locally optimal except around the given cities, that last pass costs O(nk).
+     * With the <code>tsp.check</code> system property set to true, every move is checked against
+     * the tour's actual cost, which makes each move O(n).
+     * @param cities the cities to look at first, or null for all of them
+     */
+    public void optimize(Tour tour, int[] cities) {
+        this.tour = tour;
+        int n = tour.size();
+        queue = new int[n];
+        queued = new boolean[n];
+        head = count = 0;
+        // O(n) per move, so only for debugging engines and tour representations
+        boolean checking = Boolean.getBoolean("tsp.check");
+        double cost = checking ? tsp.cost(tour.toArray()) : 0;
+        if (cities != null) {
+            for (int c : cities) {
+                touch(c);
+            }
+            cost = drain(checking, cost);
+        }
+        long before;
+        do {
+            before = moves;
+            // In tour order, so that consecutive work is spatially close
+            int city = 0;
+            for (int i = 0; i < n; i++, city = tour.next(city)) {
+                touch(city);
+            }
+            cost = drain(checking, cost);
+        } while (moves > before);
+    }
+
+    /**
+     * Looks at the queued cities until the queue is empty
+     * @return the tour's cost if checking, else the given cost
+     */
+    private double drain(boolean checking, double cost) {
+        while (count > 0) {
+            int city = queue[head];
+            head = head + 1 == queue.length ? 0 : head + 1;
+            count--;
+            queued[city] = false;
+            if (improve(city)) {
+                moves++;
+                touch(city);
+                if (checking) {
+                    cost = checkImproved(cost, city);
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Checks that the move just made from a city shortened the tour. This is what catches an
+     * engine relying on the tour's direction across a reversal, which only some {@link Tour}
+     * implementations turn round.
+     * @param before the cost of the tour before the move
+     * @return the cost after the move
+     */
+    private double checkImproved(double before, int city) {
+        int[] order = tour.toArray();
+        boolean[] seen = new boolean[order.length];
+        for (int c : order) {
+            if (seen[c]) {
+                throw new AssertionError(getClass().getName() + " made an invalid tour from city " + city);
+            }
+            seen[c] = true;
+        }
+        double after = tsp.cost(order);
+        if (!improves(after - before)) {
+            throw new AssertionError(getClass().getName() + " on " + tour.getClass().getName()
+                    + " changed the cost from " + before + " to " + after + " from city " + city);
+        }
+        return after;
+    }
+
+    /**
+     * Clears the don't-look bit of a city, queueing it to be looked at again
+     */
+    protected void touch(int city) {
+        if (!queued[city]) {
+            queued[city] = true;
+            int tail = head + count;
+            queue[tail >= queue.length ? tail - queue.length : tail] = city;
+            count++;
+        }
+    }
+
+    /**
+     * Replaces the edges (a, b) and (c, d) by (a, c) and (b, d), where b follows a and d follows c
+     * in the same direction round the tour, whichever direction that currently is. More complex
+     * moves are applied as sequences of these, re-checking the direction each time.
+     */
+    protected void twoOptMove(int a, int b, int c, int d) {
+        if (tour.next(a) == b) {
+            tour.reverse(b, c); // a b ... c d
+        } else {
+            tour.reverse(c, b); // d c ... b a
+        }
+    }
+
+    /**
+     * @return whether a move that changes the tour cost by delta is an improvement
+     */
+    protected boolean improves(double delta) {
+        return delta < -epsilon;
+    }
+
+    /**
+     * @return the number of improving moves applied so far
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+
+    /**
+     * Creates an engine by name
+     * @param name "2opt", "parallel2opt", "oropt", "3opt", "lk" or "partitioned"
+     * @param tsp the TSP whose tours are to be improved
+     */
+    public static LocalSearch create(String name, TSP tsp) {
+        switch (name.toLowerCase()) {
+            case "2opt":
+                return new TwoOpt(tsp);
+            case "parallel2opt":
+                return new ParallelTwoOpt(tsp);
+            case "oropt":
+                return new OrOpt(tsp);
+            case "3opt":
+                return new ThreeOpt(tsp);
+            case "lk":
+                return new LinKernighan(tsp);
+            case "partitioned":
+                return new PartitionedSearch(tsp);
+            default:
+                throw new IllegalArgumentException("Unknown local search: " + name);
+        }
+    }
+
+    /**
+     * Runs a parallel search on a fork-join pool of its own, shut down when the search ends so
+     * that its threads don't outlive it, or on the common pool
+     * @param threads the number of threads, or 0 for the common pool
+     * @param search the search, given the pool
+     * @return what the search returns
+     */
+    protected static <T> T inPool(int threads, Function<ForkJoinPool, T> search) {
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        try {
+            return search.apply(pool);
+        } finally {
+            if (threads > 0) {
+                pool.shutdown();
+            }
+        }
+    }
+
+
+    //// ITERATED LOCAL SEARCH ////
+
+    /**
+     * Iterated local search (Martin, Otto and Felten, 1991): improves the tour, then repeatedly
+     * perturbs it with a double-bridge kick, improves it again from the cities the kick touched
+     * and keeps the result if it is shorter. A kick cuts three short consecutive segments
+     * A B C D and reconnects them as A C B D, which local search can't easily undo. Several
+     * random kicks are costed with {@link TSP#doubleBridgeDelta(int[], int, int, int)} and the
+     * least damaging one is applied.
+     * @param order the cities in tour order (not modified)
+     * @param kicks the number of kicks
+     * @param random the source of kick positions
+     * @return the best tour found
+     */
+    public int[] iterate(int[] order, int kicks, Random random) {
+        int[] best = optimize(order);
+        int n = best.length;
+        if (n < 8) {
+            return best;
+        }
+        double bestCost = tsp.cost(best);
+        for (int kick = 0; kick < kicks; kick++) {
+            int i = 0, j = 0, k = 0;
+            double least = Double.POSITIVE_INFINITY;
+            for (int sample = 0; sample < KICK_SAMPLES; sample++) {
+                int si = 1 + random.nextInt(n - 3);
+                int sj = si + 1 + random.nextInt(Math.min(KICK_SEGMENT, n - 2 - si));
+                int sk = sj + 1 + random.nextInt(Math.min(KICK_SEGMENT, n - 1 - sj));
+                double delta = tsp.doubleBridgeDelta(best, si, sj, sk);
+                if (delta < least) {
+                    least = delta;
+                    i = si;
+                    j = sj;
+                    k = sk;
+                }
+            }
+
+            // A B C D -> A C B D
+            int[] kicked = best.clone();
+            System.arraycopy(best, j, kicked, i, k - j);
+            System.arraycopy(best, i, kicked, i + k - j, j - i);
+            Tour t = newTour(kicked);
+            optimize(t, new int[] { best[i - 1], best[i], best[j - 1], best[j], best[k - 1], best[k] });
+            int[] result = t.toArray();
+            double cost = tsp.cost(result);
+            if (improves(cost - bestCost)) {
+                best = result;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+
+    //// COMMAND LINE ////
+
+    /**
+     * Runs an engine on a tour file. Usage: Engine tspfile tourin tourout, where a tourin of
+     * "nn" starts from {@link TSP#nearestNeighbourTour(int)} instead. If the <code>tsp.kicks</code>
+     * system property is set, that many rounds of {@link #iterate(int[], int, Random)} follow,
+     * seeded by <code>tsp.seed</code>.
+     * @param args the command line arguments
+     * @param name the name of the engine, for the output
+     * @param engine creates the engine for the TSP
+     */
+    protected static void run(String[] args, String name, Function<TSP, LocalSearch> engine) throws IOException {
+        // Read in tsp
+        TSP tsp = new TSP(args[0]);
+        System.out.println("Loaded " + tsp);
+
+        // Read in tour
+        int tour[] = args[1].equals("nn") ? tsp.nearestNeighbourTour(0) : tsp.fromOriginal(TSPReader.readTour(args[1]));
+        System.out.println("Pre " + name + " cost: " + tsp.cost(tour));
+
+        long start = System.nanoTime();
+        int kicks = Integer.getInteger("tsp.kicks", 0);
+        LocalSearch search = engine.apply(tsp);
+        int optTour[] = kicks > 0 ? search.iterate(tour, kicks, new Random(Long.getLong("tsp.seed", 1)))
+                                  : search.optimize(tour);
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Post " + name + " cost: " + tsp.cost(optTour) + " (" + millis + "ms)");
+
+        // Output optimised tour to file
+        PrintWriter fh = new PrintWriter(new FileOutputStream(args[2]));
+        for (int city : tsp.toOriginal(optTour)) {
+            fh.println(city);
+        }
+        fh.close();
+    }
+}
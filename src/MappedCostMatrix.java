@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A packed cost matrix read in place from a memory-mapped {@link TSPBinary} section
+ */
+public class MappedCostMatrix extends PackedCostMatrix {
+    private final FloatBuffer floats; // exactly one of these is set
+    private final IntBuffer   ints;
+
+    /**
+     * @param n the number of cities
+     * @param section the packed entries, positioned at the first one
+     * @param rounded whether the entries are rounded ints rather than floats
+     */
+    public MappedCostMatrix(int n, ByteBuffer section, boolean rounded) {
+        super(n);
+        floats = rounded ? null : section.asFloatBuffer();
+        ints   = rounded ? section.asIntBuffer() : null;
+    }
+
+    @Override
+    public double get(int city1, int city2) {
+        if (city1 == city2) {
+            return 0;
+        }
+        int k = index(city1, city2);
+        return floats != null ? floats.get(k) : ints.get(k);
+    }
+
+    @Override
+    public long memoryUsage() {
+        return entries(n) * 4; // in the page cache rather than on the heap
+    }
+
+    @Override
+    public void writeTo(ByteBuffer out) {
+        if (floats != null) {
+            out.asFloatBuffer().put(floats.duplicate());
+        } else {
+            out.asIntBuffer().put(ints.duplicate());
+        }
+        out.position(out.position() + (int) entries(n) * 4);
+    }
+
+    /**
+     * @return whether the entries are rounded ints rather than floats
+     */
+    public boolean isRounded() {
+        return ints != null;
+    }
+}
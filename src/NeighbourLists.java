@@ -0,0 +1,75 @@
+import java.util.stream.IntStream;
+
+/**
+ * The k nearest neighbours of every city, nearest first, in one flat array:
+ * the neighbours of city i are at [i*k, i*k + k).
+ *
+ * Local search and tour construction only need to look at near neighbours to find almost all
+ * good moves, which takes a pass from O(n^2) to O(nk).
+ */
+public class NeighbourLists {
+    private final int n;
+    private final int k;
+    private final int[] neighbours;
+
+    /**
+     * Builds the lists in parallel using the TSP's k-d tree
+     * @param tsp the TSP
+     * @param k the number of neighbours per city (clipped to n-1)
+     */
+    public NeighbourLists(TSP tsp, int k) {
+        this.n = tsp.size();
+        this.k = Math.max(0, Math.min(k, n - 1));
+        this.neighbours = new int[n * this.k];
+        KdTree kd = tsp.getKdTree();
+        int stride = this.k;
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[] found = new int[stride];
+            kd.nearest(i, stride, found);
+            System.arraycopy(found, 0, neighbours, i * stride, stride);
+        });
+    }
+
+    /**
+     * Wraps lists that have already been computed, e.g. read from a {@link TSPBinary}
+     * @param n the number of cities
+     * @param k the number of neighbours per city
+     * @param neighbours the flat lists
+     */
+    public NeighbourLists(int n, int k, int[] neighbours) {
+        if (neighbours.length != n * k) {
+            throw new IllegalArgumentException("Expected " + n + "*" + k + " neighbours, got " + neighbours.length);
+        }
+        this.n = n;
+        this.k = k;
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * @return the i-th nearest neighbour of a city (i counting from 0)
+     */
+    public int get(int city, int i) {
+        return neighbours[city * k + i];
+    }
+
+    /**
+     * @return the number of neighbours per city
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of cities
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the flat neighbour array, for tight loops (not to be modified)
+     */
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A long-indexed array of doubles stored outside the Java heap, either in direct memory or in a
+ * memory-mapped file. Large matrices kept here don't have to be scanned or copied by the garbage
+ * collector. The array is split into chunks of 2^27 doubles (1GB), as a single NIO buffer can't
+ * address more than 2GB.
+ *
+ * Direct memory is capped by the JVM's <code>-XX:MaxDirectMemorySize</code>, which defaults to the
+ * maximum heap size. Arrays larger than that need the flag raised, or a file to map instead (see
+ * {@link #create(long, String)}), which is only limited by disk space.
+ */
+public class OffHeapArray {
+    private static final int  CHUNK_SHIFT = 27;
+    private static final long CHUNK_SIZE  = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK  = CHUNK_SIZE - 1;
+
+    private final long length;
+    private final DoubleBuffer[] chunks;
+
+    /**
+     * Allocates a zeroed array in direct memory
+     * @param length the number of doubles
+     * @throws OutOfMemoryError if the array doesn't fit under the direct memory limit
+     */
+    public OffHeapArray(long length) {
+        this.length = length;
+        chunks = new DoubleBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+        try {
+            for (int c = 0; c < chunks.length; c++) {
+                chunks[c] = ByteBuffer.allocateDirect(chunkLength(c) * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        } catch (OutOfMemoryError e) {
+            Arrays.fill(chunks, null); // let the chunks already allocated go
+            OutOfMemoryError error = new OutOfMemoryError("Can't allocate " + (length * 8 >> 20)
+                    + "MB of direct memory; raise -XX:MaxDirectMemorySize or set tsp.offheap.dir to map a file instead");
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    /**
+     * Maps an array onto a file, which is created or grown as needed
+     * @param length the number of doubles
+     * @param path the file backing the array
+     * @throws IOException
+     */
+    public OffHeapArray(long length, String path) throws IOException {
+        this.length = length;
+        chunks = new DoubleBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            FileChannel channel = file.getChannel();
+            for (int c = 0; c < chunks.length; c++) {
+                // The mapping stays valid after the channel is closed
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, (c * CHUNK_SIZE) * 8, (long) chunkLength(c) * 8)
+                        .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * Allocates an array in a temporary file under <code>dir</code> if it is non-null,
+     * and in direct memory otherwise
+     * @throws IOException
+     */
+    public static OffHeapArray create(long length, String dir) throws IOException {
+        if (dir == null) {
+            return new OffHeapArray(length);
+        }
+        java.io.File file = java.io.File.createTempFile("tsp", ".bin", new java.io.File(dir));
+        file.deleteOnExit();
+        return new OffHeapArray(length, file.getPath());
+    }
+
+    private int chunkLength(int c) {
+        return (int) Math.min(CHUNK_SIZE, length - c * CHUNK_SIZE);
+    }
+
+    public double get(long i) {
+        return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+    }
+
+    public void set(long i, double value) {
+        chunks[(int) (i >>> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+    }
+
+    public void add(long i, double amount) {
+        DoubleBuffer chunk = chunks[(int) (i >>> CHUNK_SHIFT)];
+        int k = (int) (i & CHUNK_MASK);
+        chunk.put(k, chunk.get(k) + amount);
+    }
+
+    /**
+     * Sets every element to <code>value</code>
+     */
+    public void fill(double value) {
+        for (DoubleBuffer chunk : chunks) {
+            for (int k = 0; k < chunk.capacity(); k++) {
+                chunk.put(k, value);
+            }
+        }
+    }
+
+    /**
+     * Multiplies every element by <code>factor</code>
+     */
+    public void scale(double factor) {
+        for (DoubleBuffer chunk : chunks) {
+            for (int k = 0; k < chunk.capacity(); k++) {
+                chunk.put(k, chunk.get(k) * factor);
+            }
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+}
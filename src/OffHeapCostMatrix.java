@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * Packed upper-triangular cost matrix of doubles held in an {@link OffHeapArray}.
+ * Unlike the on-heap packed matrices it isn't limited to 2^31 entries.
+ */
+public class OffHeapCostMatrix implements CostMatrix {
+    private final int n;
+    private final OffHeapArray cost;
+
+    /**
+     * Builds the matrix of Euclidean distances between the given points
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @param dir directory to put the backing file in, or null to use direct memory
+     * @throws IOException
+     */
+    public OffHeapCostMatrix(int[] xs, int[] ys, String dir) throws IOException {
+        n = xs.length;
+        cost = OffHeapArray.create((long) n * (n - 1) / 2, dir);
+        IntStream.range(0, n).parallel().forEach(i -> {
+            long k = rowStart(i);
+            double xi = xs[i], yi = ys[i];
+            for (int j = i + 1; j < n; j++) {
+                double dx = xi - xs[j];
+                double dy = yi - ys[j];
+                cost.set(k++, Math.sqrt(dx*dx + dy*dy));
+            }
+        });
+    }
+
+    private long rowStart(int i) {
+        return (long) i * (2L * n - i - 1) / 2;
+    }
+
+    @Override
+    public double get(int city1, int city2) {
+        if (city1 == city2) {
+            return 0;
+        }
+        if (city1 > city2) {
+            int t = city1; city1 = city2; city2 = t;
+        }
+        return cost.get(rowStart(city1) + (city2 - city1 - 1));
+    }
+
+    @Override
+    public long memoryUsage() {
+        return cost.length() * 8;
+    }
+}
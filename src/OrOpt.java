@@ -0,0 +1,143 @@
+import java.io.*;
+
+/**
+ * Or-opt local search (Or, 1976): moves a segment of one to {@link #MAX_SEGMENT} consecutive cities
+ * to another place in the tour, forwards or reversed, while that shortens the tour.
+ *
+ * Segments are tried with each end at the city being looked at, and inserted next to a nearest
+ * neighbour of either of their ends. A neighbour is only worth trying while it is closer than
+ * what taking the segment out of the tour saves. It is a cheap second stage after {@link TwoOpt},
+ * which can't repair cities visited slightly out of place.
+ */
+public class OrOpt extends LocalSearch {
+    /** The longest segment moved */
+    public static final int MAX_SEGMENT = 3;
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists
+     */
+    public OrOpt(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists());
+    }
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     */
+    public OrOpt(TSP tsp, NeighbourLists neighbours) {
+        super(tsp, neighbours);
+    }
+
+    /**
+     * Improves a tour until no Or-opt move shortens it
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public static int[] optimize(TSP tsp, int[] tour) {
+        return new OrOpt(tsp).optimize(tour);
+    }
+
+    private int step(int city, boolean forward) {
+        return forward ? tour.next(city) : tour.prev(city);
+    }
+
+    @Override
+    protected boolean improve(int a) {
+        if (tour.size() < MAX_SEGMENT + 3) {
+            return false;
+        }
+        int[] segment = new int[MAX_SEGMENT];
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            // The segment runs s1 .. s2 in this direction, between p and nx
+            int s1 = a;
+            int p  = step(s1, !forward);
+            int s2 = s1;
+            segment[0] = s1;
+            for (int len = 1; len <= MAX_SEGMENT; len++) {
+                if (len > 1) {
+                    s2 = step(s2, forward);
+                    segment[len - 1] = s2;
+                } else if (!forward) {
+                    continue; // single cities are covered going forwards
+                }
+                int nx = step(s2, forward);
+                double removed = tsp.cost(p, s1) + tsp.cost(s2, nx) - tsp.cost(p, nx);
+                if (tryInsert(segment, len, forward, p, s1, s2, nx, removed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks for an improving place to insert the segment next to a neighbour of either end
+     * @param removed the saving from taking the segment out and joining p to nx
+     */
+    private boolean tryInsert(int[] segment, int len, boolean forward, int p, int s1, int s2, int nx, double removed) {
+        int k = neighbours.getK();
+        for (int end = 0; end < 2; end++) {
+            int s = end == 0 ? s1 : s2;
+            for (int i = 0; i < k; i++) {
+                int c = neighbours.get(s, i);
+                if (neighbourCosts[s * k + i] >= removed) {
+                    break; // gain criterion
+                }
+                if (contains(segment, len, c)) {
+                    continue;
+                }
+                // Insert between c and its successor or its predecessor, with s next to c
+                for (int side = 0; side < 2; side++) {
+                    int e = side == 0 ? c : step(c, !forward);
+                    int f = side == 0 ? step(c, forward) : c;
+                    if (contains(segment, len, e) || contains(segment, len, f)) {
+                        continue;
+                    }
+                    // s1 next to e keeps the segment's direction, s1 next to f reverses it
+                    boolean reversed = (s == s1) == (side == 1);
+                    double added = reversed ? tsp.cost(e, s2) + tsp.cost(s1, f) : tsp.cost(e, s1) + tsp.cost(s2, f);
+                    double delta = added - tsp.cost(e, f) - removed;
+                    if (improves(delta)) {
+                        move(p, s1, s2, nx, e, f, reversed);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] segment, int len, int city) {
+        for (int i = 0; i < len; i++) {
+            if (segment[i] == city) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the segment s1 .. s2 from between p and nx to between e and f, where s1 follows p
+     * and f follows e in the same direction
+     */
+    private void move(int p, int s1, int s2, int nx, int e, int f, boolean reversed) {
+        // p S X f  ->  p e ... nx s2 ... s1 f  ->  p nx ... e s2 ... s1 f
+        twoOptMove(p, s1, e, f);
+        twoOptMove(p, e, nx, s2);
+        if (!reversed) {
+            twoOptMove(e, s2, s1, f); // e s1 ... s2 f
+        }
+        touch(p);
+        touch(nx);
+        touch(s1);
+        touch(s2);
+        touch(e);
+        touch(f);
+    }
+
+    public static void main(String args[]) throws FileNotFoundException, IOException {
+        run(args, "Or-opt", OrOpt::new);
+    }
+}
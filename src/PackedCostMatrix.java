@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A cost matrix that stores only the upper triangle (without the diagonal) in a single flat array.
+ * Entry (i, j) with i &lt; j lives at i*(2n-i-1)/2 + (j-i-1).
+ */
+public abstract class PackedCostMatrix implements CostMatrix {
+    protected final int n;
+
+    protected PackedCostMatrix(int n) {
+        this.n = n;
+        if (entries(n) > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many cities for a packed cost matrix: " + n);
+        }
+    }
+
+    /**
+     * @return the number of entries in a packed matrix of n cities
+     */
+    public static long entries(int n) {
+        return (long) n * (n - 1) / 2;
+    }
+
+    /**
+     * @return the position of the first entry of row i (i.e. of (i, i+1))
+     */
+    protected final int rowStart(int i) {
+        return (int) ((long) i * (2 * n - i - 1) / 2);
+    }
+
+    /**
+     * @return the position of entry (i, j) for i != j
+     */
+    protected final int index(int i, int j) {
+        if (i > j) {
+            int t = i; i = j; j = t;
+        }
+        return rowStart(i) + (j - i - 1);
+    }
+
+    /**
+     * Copies the packed entries into a buffer, for {@link TSPBinary}
+     */
+    public abstract void writeTo(ByteBuffer out);
+}
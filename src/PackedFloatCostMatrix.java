@@ -0,0 +1,47 @@
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Packed upper-triangular cost matrix of single precision distances
+ */
+public class PackedFloatCostMatrix extends PackedCostMatrix {
+    private final float[] cost;
+
+    /**
+     * Builds the matrix of Euclidean distances between the given points
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     */
+    public PackedFloatCostMatrix(int[] xs, int[] ys) {
+        super(xs.length);
+        cost = new float[(int) entries(n)];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int k = rowStart(i);
+            double xi = xs[i], yi = ys[i];
+            for (int j = i + 1; j < n; j++) {
+                double dx = xi - xs[j];
+                double dy = yi - ys[j];
+                cost[k++] = (float) Math.sqrt(dx*dx + dy*dy);
+            }
+        });
+    }
+
+    @Override
+    public double get(int city1, int city2) {
+        if (city1 == city2) {
+            return 0;
+        }
+        return cost[index(city1, city2)];
+    }
+
+    @Override
+    public long memoryUsage() {
+        return (long) cost.length * 4;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer out) {
+        out.asFloatBuffer().put(cost);
+        out.position(out.position() + cost.length * 4);
+    }
+}
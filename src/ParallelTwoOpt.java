@@ -0,0 +1,417 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Best-improvement 2-opt that finds and applies moves on several cores with fork-join.
+ *
+ * Works in rounds on an array of the tour. Each round, the cities still being looked at are
+ * split into ranges scanned as separate tasks, and each records its best improving 2-opt move.
+ * Edge (i, i + 1) is edge i, and a move on edges i &lt; j reverses the positions i + 1 .. j, or
+ * the rest of the tour from j + 1 round to i when that is shorter. The moves are then taken best
+ * first, keeping each one whose span of edges doesn't overlap a move already kept, and the kept
+ * moves are applied in parallel since they reverse disjoint parts of the array. Cities lose their
+ * don't-look bit as in {@link LocalSearch}, so later rounds only scan the ends of the previous
+ * round's moves; a city whose move wasn't kept holds on to it without scanning again for as long
+ * as both its edges are still in the tour. When no move is found every city is looked at once
+ * more, and the search stops when that finds none either, at the same kind of local optimum as
+ * {@link TwoOpt}.
+ */
+public class ParallelTwoOpt extends TwoOpt {
+    /** Fewest positions scanned, or moves applied, by one task */
+    public static final int TASK_SIZE = 256;
+
+    private final int threads;
+
+    private int n;
+    private int[] order;      // cities in tour order
+    private int[] pos;        // position of each city in order
+    private boolean[] active; // in work
+    private boolean[] stale;  // to be scanned, as the city's move is unknown or one of its edges has gone
+    private int[] work;       // the cities with a move or to be scanned
+    private int[] next;       // those of the next round
+    private int workCount;
+    private int[] moveLo;     // per city a: the best move's edges, lo < hi,
+    private int[] moveHi;
+    private int[] moveB;      // which are (a, b) and (c, d), replaced by (a, c) and (b, d)
+    private int[] moveC;
+    private int[] moveD;
+    private double[] moveDelta;
+    private final TreeMap<Integer, Integer> picked = new TreeMap<>(); // lo -> hi of each span picked
+    private long rounds;
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists. The number
+     *            of threads is the <code>tsp.threads</code> system property, or the common pool's
+     *            if not set
+     */
+    public ParallelTwoOpt(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists(), Integer.getInteger("tsp.threads", 0));
+    }
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     * @param threads the number of threads, or 0 for the common fork-join pool
+     */
+    public ParallelTwoOpt(TSP tsp, NeighbourLists neighbours, int threads) {
+        super(tsp, neighbours);
+        this.threads = threads;
+    }
+
+    /**
+     * Improves a tour until no 2-opt move shortens it
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public static int[] optimize(TSP tsp, int[] tour) {
+        return new ParallelTwoOpt(tsp).optimize(tour);
+    }
+
+    /**
+     * @return the number of rounds of finding and applying moves so far
+     */
+    public long getRounds() {
+        return rounds;
+    }
+
+    @Override
+    public int[] optimize(int[] tour) {
+        return inPool(threads, pool -> optimize(pool, tour, null));
+    }
+
+    /**
+     * Improves a tour until no 2-opt move shortens it, on a pool the caller already has, starting
+     * from some cities only. Once they have no moves left every city is looked at once more, as
+     * in {@link LocalSearch#optimize(Tour, int[])}.
+     * @param pool the pool to run on
+     * @param tour the cities in tour order (not modified)
+     * @param cities the cities to look at first, or null for all of them
+     * @return the improved tour
+     */
+    public int[] optimize(ForkJoinPool pool, int[] tour, int[] cities) {
+        n = tour.length;
+        order = tour.clone();
+        if (n < 8) {
+            return order;
+        }
+        pos = new int[n];
+        for (int i = 0; i < n; i++) {
+            pos[order[i]] = i;
+        }
+        active = new boolean[n];
+        stale = new boolean[n];
+        work = new int[n];
+        next = new int[n];
+        workCount = 0;
+        moveLo = new int[n];
+        moveHi = new int[n];
+        moveB = new int[n];
+        moveC = new int[n];
+        moveD = new int[n];
+        moveDelta = new double[n];
+
+        if (cities != null) {
+            for (int city : cities) {
+                if (!active[city]) {
+                    active[city] = true;
+                    stale[city] = true;
+                    work[workCount++] = city;
+                }
+            }
+        }
+
+        boolean full = false;
+        while (true) {
+            if (workCount == 0) {
+                if (full) {
+                    return order;
+                }
+                for (int i = 0; i < n; i++) {
+                    work[i] = order[i];
+                    active[order[i]] = true;
+                    stale[order[i]] = true;
+                }
+                workCount = n;
+                full = true;
+            }
+            rounds++;
+            pool.invoke(new Scan(0, workCount));
+            int[] batch = chooseMoves();
+            if (batch.length > 0) {
+                full = false;
+            }
+            nextWork(batch);
+            pool.invoke(new Apply(batch, 0, batch.length));
+            moves += batch.length;
+        }
+    }
+
+    //// FINDING MOVES ////
+
+    /**
+     * Scans the cities work[lo .. hi - 1], splitting the range among tasks
+     */
+    @SuppressWarnings("serial")
+    private class Scan extends RecursiveAction {
+        private final int lo, hi;
+
+        Scan(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= TASK_SIZE) {
+                for (int i = lo; i < hi; i++) {
+                    scan(i);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Scan(lo, mid), new Scan(mid, hi));
+            }
+        }
+    }
+
+    /**
+     * Records the best move adding an edge from the city work[w] to a neighbour, in moveDelta
+     * (0 if there is none), and sets the city's don't-look bit if there is none. A city whose
+     * last move can still be made keeps it.
+     */
+    private void scan(int w) {
+        int a = work[w];
+        if (!stale[a] && relocate(a)) {
+            return;
+        }
+        stale[a] = false;
+        moveDelta[a] = 0;
+        int i = pos[a];
+        int k = neighbours.getK();
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            int ab = forward ? i : prevPosition(i); // edge (a, b)
+            int b = order[forward ? nextPosition(i) : ab];
+            double dab = tsp.cost(a, b);
+            for (int x = 0; x < k; x++) {
+                int c = neighbours.get(a, x);
+                double dac = neighbourCosts[a * k + x];
+                if (dac >= dab) {
+                    break; // no gain left from this edge
+                }
+                int j = pos[c];
+                int cd = forward ? j : prevPosition(j); // edge (c, d)
+                int d = order[forward ? nextPosition(j) : cd];
+                if (c == b || d == a) {
+                    continue;
+                }
+                int lo = Math.min(ab, cd), hi = Math.max(ab, cd);
+                double delta = tsp.twoOptDelta(order, lo + 1, hi);
+                if (delta < moveDelta[a]) {
+                    moveDelta[a] = delta;
+                    moveLo[a] = lo;
+                    moveHi[a] = hi;
+                    moveB[a] = b;
+                    moveC[a] = c;
+                    moveD[a] = d;
+                }
+            }
+        }
+        if (!improves(moveDelta[a])) {
+            moveDelta[a] = 0;
+            active[a] = false;
+        }
+    }
+
+    /**
+     * Finds the edges of a's last move again after other moves were applied. Reversals elsewhere
+     * move a move's edges about without changing its gain, as long as both edges are still in
+     * the tour and still run the same way as each other, which is what makes the move a 2-opt
+     * move rather than one that splits the tour.
+     * @return whether the move can still be made
+     */
+    private boolean relocate(int a) {
+        int b = moveB[a], c = moveC[a], d = moveD[a];
+        int i = pos[a], j = pos[c];
+        int ab, cd;
+        if (order[nextPosition(i)] == b && order[nextPosition(j)] == d) {
+            ab = i;
+            cd = j;
+        } else if (order[prevPosition(i)] == b && order[prevPosition(j)] == d) {
+            ab = prevPosition(i);
+            cd = prevPosition(j);
+        } else {
+            return false;
+        }
+        moveLo[a] = Math.min(ab, cd);
+        moveHi[a] = Math.max(ab, cd);
+        return true;
+    }
+
+    private int nextPosition(int i) {
+        return i + 1 == n ? 0 : i + 1;
+    }
+
+    private int prevPosition(int i) {
+        return i == 0 ? n - 1 : i - 1;
+    }
+
+    /**
+     * Picks the moves to apply this round: the best first, then each next best whose span of
+     * edges doesn't overlap that of a move already picked. The span of a move on edges lo and hi
+     * is lo .. hi, or hi .. n - 1 and 0 .. lo when it reverses the rest of the tour instead.
+     * @return the cities whose moves were picked
+     */
+    private int[] chooseMoves() {
+        // Sort by gain, packed above the city as in SpaceFillingCurve. The gain is positive,
+        // so its float bits order like it; rounding it to a float only affects ties.
+        int count = 0;
+        for (int w = 0; w < workCount; w++) {
+            if (active[work[w]]) {
+                count++;
+            }
+        }
+        long[] found = new long[count];
+        count = 0;
+        for (int w = 0; w < workCount; w++) {
+            int a = work[w];
+            if (active[a]) {
+                found[count++] = (long) Float.floatToIntBits((float) -moveDelta[a]) << 32 | a;
+            }
+        }
+        Arrays.sort(found);
+
+        picked.clear();
+        int[] batch = new int[found.length];
+        count = 0;
+        for (int m = found.length - 1; m >= 0; m--) {
+            int a = (int) found[m];
+            int lo = moveLo[a], hi = moveHi[a];
+            if (!free(lo, hi)) {
+                continue; // overlaps a better move
+            }
+            if (!wraps(lo, hi)) {
+                picked.put(lo, hi);
+            } else {
+                picked.put(hi, n - 1);
+                picked.put(0, lo);
+            }
+            batch[count++] = a;
+        }
+        return Arrays.copyOf(batch, count);
+    }
+
+    /**
+     * @return whether no span picked so far overlaps that of the move on edges lo and hi
+     */
+    private boolean free(int lo, int hi) {
+        return wraps(lo, hi) ? clear(hi, n - 1) && clear(0, lo) : clear(lo, hi);
+    }
+
+    /**
+     * @return whether no span picked so far overlaps the edges lo .. hi
+     */
+    private boolean clear(int lo, int hi) {
+        Map.Entry<Integer, Integer> below = picked.floorEntry(hi);
+        return below == null || below.getValue() < lo;
+    }
+
+    /**
+     * @return whether the move on edges lo &lt; hi reverses the rest of the tour, hi + 1 round to
+     *         lo, as that is shorter than lo + 1 .. hi
+     */
+    private boolean wraps(int lo, int hi) {
+        return hi - lo > n / 2;
+    }
+
+    /**
+     * Makes the next round's work: the cities with a move that wasn't picked, and the ends of
+     * the picked moves, whose don't-look bits are cleared and which are scanned again
+     */
+    private void nextWork(int[] batch) {
+        int count = 0;
+        for (int w = 0; w < workCount; w++) {
+            int a = work[w];
+            if (active[a]) {
+                next[count++] = a;
+            }
+        }
+        for (int a : batch) {
+            int lo = moveLo[a], hi = moveHi[a];
+            int[] ends = { order[lo], order[lo + 1], order[hi], order[nextPosition(hi)] };
+            for (int city : ends) {
+                stale[city] = true;
+                if (!active[city]) {
+                    active[city] = true;
+                    next[count++] = city;
+                }
+            }
+        }
+        int[] t = work;
+        work = next;
+        next = t;
+        workCount = count;
+    }
+
+    //// APPLYING MOVES ////
+
+    /**
+     * Applies the moves batch[lo .. hi - 1], splitting them among tasks
+     */
+    @SuppressWarnings("serial")
+    private class Apply extends RecursiveAction {
+        private final int[] batch;
+        private final int lo, hi;
+
+        Apply(int[] batch, int lo, int hi) {
+            this.batch = batch;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            // Split by the number of cities moved, as reversal lengths vary widely
+            long moved = 0;
+            for (int m = lo; m < hi; m++) {
+                int span = moveHi[batch[m]] - moveLo[batch[m]];
+                moved += Math.min(span, n - span);
+            }
+            if (hi - lo == 1 || moved <= TASK_SIZE) {
+                for (int m = lo; m < hi; m++) {
+                    apply(moveLo[batch[m]], moveHi[batch[m]]);
+                }
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Apply(batch, lo, mid), new Apply(batch, mid, hi));
+            }
+        }
+    }
+
+    /**
+     * Replaces edges lo and hi by reversing the positions lo + 1 .. hi, or the positions hi + 1
+     * round to lo when there are fewer of those
+     */
+    private void apply(int lo, int hi) {
+        int i = lo + 1, j = hi, len = hi - lo;
+        if (wraps(lo, hi)) {
+            i = nextPosition(hi);
+            j = lo;
+            len = n - len;
+        }
+        for (int m = len / 2; m > 0; m--) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+            pos[order[i]] = i;
+            pos[order[j]] = j;
+            i = nextPosition(i);
+            j = prevPosition(j);
+        }
+    }
+
+    public static void main(String args[]) throws FileNotFoundException, IOException {
+        run(args, "Parallel 2opt", ParallelTwoOpt::new);
+    }
+}
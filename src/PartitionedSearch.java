@@ -0,0 +1,604 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parallel 2-opt and Or-opt for very large tours by geometric partitioning (after Karp,
+ * "Probabilistic analysis of partitioning algorithms for the traveling-salesman problem in the
+ * plane", 1977).
+ *
+ * Each pass splits the plane into k-d cells of at most {@link #CELL_SIZE} cities and cuts the
+ * tour into paths of consecutive cities in the same cell. The paths are improved concurrently by
+ * fork-join tasks with 2-opt, Or-opt and swap moves inside the path, keeping its two end cities in
+ * place, so every task reverses and moves cities only within its own part of the tour array and
+ * the tour stays one cycle. The next pass turns the axes of the partition, so that edges cut by
+ * one pass's cell boundaries lie inside the next pass's cells. Passes go on until two in a row
+ * find nothing to improve, or {@link #MAX_PASSES}. Edges that leave a cell in every pass, like
+ * the long ones a greedy tour ends with, are then taken in by passes with cells twice as large
+ * each time, still in parallel while there are at least two cells. 2-opt and Or-opt on the whole
+ * tour finally start from the cities whose moves the last pass's paths cut off, for the few
+ * moves no path contains; the 2-opt is {@link ParallelTwoOpt} when there are several threads.
+ */
+public class PartitionedSearch extends TwoOpt {
+    /** Most cities in a cell, until the cells start to grow */
+    public static final int CELL_SIZE = 2000;
+
+    /** Most passes over the whole tour before the cells start to grow */
+    public static final int MAX_PASSES = 8;
+
+    /** Fewest cities improved by one task */
+    public static final int TASK_SIZE = 4096;
+
+    /** Turn of the partition between passes: a golden fraction of a right angle, so it never repeats */
+    private static final double TURN = 0.6180339887 * Math.PI / 2;
+
+    private final int threads;
+
+    private int n;
+    private int[] order;      // cities in tour order
+    private int[] pos;        // position of each city in order
+    private boolean[] queued; // per city, owned by the task improving its path
+    private boolean[] settled; // per city: no improving move, even one leaving its path
+    private int[] cell;       // per city: the first index in perm of its cell
+    private int[] perm;       // cities grouped by cell
+    private double[] us, vs;  // coordinates on this pass's axes
+    private double[] key;     // the coordinate being split on, kept in step with perm
+    private int cellSize;     // of this pass
+    private long passes;
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists. The number
+     *            of threads is the <code>tsp.threads</code> system property, or the common pool's
+     *            if not set
+     */
+    public PartitionedSearch(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists(), Integer.getInteger("tsp.threads", 0));
+    }
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     * @param threads the number of threads, or 0 for the common fork-join pool
+     */
+    public PartitionedSearch(TSP tsp, NeighbourLists neighbours, int threads) {
+        super(tsp, neighbours);
+        this.threads = threads;
+    }
+
+    /**
+     * Improves a tour with partitioned 2-opt and Or-opt
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public static int[] optimize(TSP tsp, int[] tour) {
+        return new PartitionedSearch(tsp).optimize(tour);
+    }
+
+    /**
+     * @return the number of passes over the tour so far
+     */
+    public long getPasses() {
+        return passes;
+    }
+
+    @Override
+    public int[] optimize(int[] tour) {
+        n = tour.length;
+        order = tour.clone();
+        if (n < 8) {
+            return order;
+        }
+        pos    = new int[n];
+        queued = new boolean[n];
+        settled = new boolean[n];
+        cell   = new int[n];
+        perm   = new int[n];
+        us     = new double[n];
+        vs     = new double[n];
+        key    = new double[n];
+
+        return inPool(threads, pool -> {
+            int idle = 0, pass = 0;
+            for (cellSize = CELL_SIZE; pass < MAX_PASSES && idle < 2; pass++) {
+                idle = pass(pool, pass) == 0 ? idle + 1 : 0;
+            }
+            for (cellSize = 2 * CELL_SIZE; cellSize < n; cellSize *= 2, pass++) {
+                pass(pool, pass);
+            }
+            return cleanUp(pool);
+        });
+    }
+
+    /**
+     * Makes the moves across paths that no pass could, starting from the cities whose moves the
+     * last pass's paths cut off. With more than one thread, 2-opt runs in parallel as
+     * {@link ParallelTwoOpt}; with one, sequential 2-opt on a {@link Tour} does less work per
+     * move. Or-opt is sequential. Or-opt moves can make new 2-opt moves and back, so the two
+     * alternate until Or-opt finds none.
+     * @return the improved tour
+     */
+    private int[] cleanUp(ForkJoinPool pool) {
+        int[] unsettled = unsettled();
+        ParallelTwoOpt parallel = pool.getParallelism() > 1 ? new ParallelTwoOpt(tsp, neighbours, 0) : null;
+        OrOpt orOpt = new OrOpt(tsp, neighbours);
+        long orOptMoves;
+        do {
+            Tour t;
+            if (parallel != null) {
+                order = parallel.optimize(pool, order, unsettled);
+                t = newTour(order);
+            } else {
+                t = newTour(order);
+                optimize(t, unsettled);
+            }
+            orOptMoves = orOpt.getMoves();
+            orOpt.optimize(t, unsettled);
+            order = t.toArray();
+        } while (orOpt.getMoves() > orOptMoves);
+        moves += orOpt.getMoves() + (parallel != null ? parallel.getMoves() : 0);
+        return order;
+    }
+
+    /**
+     * Improves the paths of the pass'th partition, of cells of at most cellSize cities
+     * @return the number of moves made
+     */
+    private long pass(ForkJoinPool pool, int pass) {
+        passes++;
+        partition(pool, pass * TURN);
+        int[] paths = paths();
+        long found = pool.invoke(new Improve(paths, 0, paths.length / 2));
+        moves += found;
+        return found;
+    }
+
+    //// PARTITIONING ////
+
+    /**
+     * Assigns every city to a k-d cell, on axes turned by the given angle
+     */
+    private void partition(ForkJoinPool pool, double angle) {
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        for (int c = 0; c < n; c++) {
+            us[c] =  cos * tsp.getX(c) + sin * tsp.getY(c);
+            vs[c] = -sin * tsp.getX(c) + cos * tsp.getY(c);
+            perm[c] = c;
+        }
+        pool.invoke(new Split(0, n));
+    }
+
+    /**
+     * Splits perm[lo, hi) at the median of the coordinate with the larger spread, as in
+     * {@link KdTree}, until the cells are small enough
+     */
+    @SuppressWarnings("serial")
+    private class Split extends RecursiveAction {
+        private final int lo, hi;
+
+        Split(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= cellSize) {
+                for (int i = lo; i < hi; i++) {
+                    cell[perm[i]] = lo;
+                }
+                return;
+            }
+            double uMin = Double.MAX_VALUE, uMax = -Double.MAX_VALUE, vMin = Double.MAX_VALUE, vMax = -Double.MAX_VALUE;
+            for (int i = lo; i < hi; i++) {
+                int c = perm[i];
+                uMin = Math.min(uMin, us[c]); uMax = Math.max(uMax, us[c]);
+                vMin = Math.min(vMin, vs[c]); vMax = Math.max(vMax, vs[c]);
+            }
+            int mid = (lo + hi) >>> 1;
+            select(uMax - uMin >= vMax - vMin ? us : vs, lo, hi - 1, mid);
+            invokeAll(new Split(lo, mid), new Split(mid, hi));
+        }
+    }
+
+    /**
+     * Quickselect: rearranges perm[lo..hi] so that perm[k] holds the city with the k-th smallest
+     * coordinate, with smaller or equal ones before it and larger or equal ones after it. The
+     * coordinates are copied next to perm first, which saves a cache miss per comparison on
+     * large instances.
+     */
+    private void select(double[] coord, int lo, int hi, int k) {
+        for (int i = lo; i <= hi; i++) {
+            key[i] = coord[perm[i]];
+        }
+        while (hi > lo) {
+            double pivot = key[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[i] < pivot) i++;
+                while (key[j] > pivot) j--;
+                if (i <= j) {
+                    int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+                    double kt = key[i]; key[i] = key[j]; key[j] = kt;
+                    i++; j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rotates the tour array to start where it enters a cell, then cuts it into the paths that
+     * stay in one cell
+     * @return the first and last position of each path long enough to improve
+     */
+    private int[] paths() {
+        int start = 0;
+        while (start < n && cell[order[start]] == cell[order[start == 0 ? n - 1 : start - 1]]) {
+            start++;
+        }
+        if (start == n) {
+            start = 0; // all in one cell
+        }
+        if (start > 0) {
+            int[] rotated = new int[n];
+            System.arraycopy(order, start, rotated, 0, n - start);
+            System.arraycopy(order, 0, rotated, n - start, start);
+            order = rotated;
+        }
+        for (int i = 0; i < n; i++) {
+            pos[order[i]] = i;
+        }
+
+        int[] paths = new int[16];
+        int count = 0;
+        for (int s = 0, e; s < n; s = e + 1) {
+            e = s;
+            while (e + 1 < n && cell[order[e + 1]] == cell[order[s]]) {
+                e++;
+            }
+            if (e - s >= 4) { // room for a move between the fixed ends
+                if (count + 2 > paths.length) {
+                    paths = Arrays.copyOf(paths, 2 * paths.length);
+                }
+                paths[count++] = s;
+                paths[count++] = e;
+            }
+        }
+        return Arrays.copyOf(paths, count);
+    }
+
+    /**
+     * @return the cities that might still start an improving move, in tour order
+     */
+    private int[] unsettled() {
+        int count = 0;
+        for (int c = 0; c < n; c++) {
+            if (!settled[c]) {
+                count++;
+            }
+        }
+        int[] cities = new int[count];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            if (!settled[order[i]]) {
+                cities[count++] = order[i];
+            }
+        }
+        return cities;
+    }
+
+    //// IMPROVING PATHS ////
+
+    /**
+     * Improves the paths numbered lo .. hi - 1, splitting them among tasks
+     */
+    @SuppressWarnings("serial")
+    private class Improve extends RecursiveTask<Long> {
+        private final int[] paths;
+        private final int lo, hi;
+
+        Improve(int[] paths, int lo, int hi) {
+            this.paths = paths;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Long compute() {
+            long work = 0;
+            for (int p = lo; p < hi; p++) {
+                work += paths[2 * p + 1] - paths[2 * p] + 1;
+            }
+            if (hi - lo == 1 || work <= TASK_SIZE) {
+                long found = 0;
+                for (int p = lo; p < hi; p++) {
+                    found += new Path(paths[2 * p], paths[2 * p + 1]).optimize();
+                }
+                return found;
+            }
+            int mid = (lo + hi) >>> 1;
+            Improve left = new Improve(paths, lo, mid);
+            left.fork();
+            long right = new Improve(paths, mid, hi).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * The positions s .. e of the tour, improved by one task with its end cities fixed. Cities
+     * outside the path are recognised by their position, which only other tasks change, and
+     * only within their own paths.
+     *
+     * Don't-look bits carry over between passes: a city found to have no improving move is
+     * settled, and only looked at again once one of its edges changes, unless one of its
+     * candidate moves was cut off by the ends of the path. Those are tried again in the next
+     * pass, with different paths.
+     */
+    private class Path {
+        private final int s, e;
+        private final int[] queue;
+        private int head, count;
+        private boolean cut; // whether a move from the current city was cut off
+
+        Path(int s, int e) {
+            this.s = s;
+            this.e = e;
+            this.queue = new int[e - s + 1];
+        }
+
+        private boolean inside(int city) {
+            int i = pos[city];
+            return s <= i && i <= e;
+        }
+
+        /**
+         * Makes 2-opt, Or-opt and swap moves from a queue of cities with don't-look bits
+         * @return the number of moves made
+         */
+        long optimize() {
+            for (int i = s; i <= e; i++) {
+                if (!settled[order[i]]) {
+                    touch(order[i]);
+                }
+            }
+            long found = 0;
+            while (count > 0) {
+                int city = queue[head];
+                head = head + 1 == queue.length ? 0 : head + 1;
+                count--;
+                queued[city] = false;
+                cut = false;
+                if (twoOpt(city) || orOpt(city) || swap(city)) {
+                    found++;
+                    touch(city);
+                } else {
+                    settled[city] = !cut;
+                }
+            }
+            return found;
+        }
+
+        private void touch(int city) {
+            settled[city] = false;
+            if (!queued[city]) {
+                queued[city] = true;
+                int tail = head + count;
+                queue[tail >= queue.length ? tail - queue.length : tail] = city;
+                count++;
+            }
+        }
+
+        /**
+         * Looks for an improving 2-opt move on the edges (a, b) and (c, d), c being a neighbour
+         * of a, as in {@link TwoOpt}. Edge i is (order[i], order[i + 1]).
+         */
+        private boolean twoOpt(int a) {
+            int i = pos[a];
+            int k = neighbours.getK();
+            for (int dir = 0; dir < 2; dir++) {
+                boolean forward = dir == 0;
+                if (i == (forward ? e : s)) {
+                    cut = true;
+                    continue;
+                }
+                int ab = forward ? i : i - 1;
+                int b = order[forward ? i + 1 : i - 1];
+                double dab = tsp.cost(a, b);
+                for (int x = 0; x < k; x++) {
+                    int c = neighbours.get(a, x);
+                    double dac = neighbourCosts[a * k + x];
+                    if (dac >= dab) {
+                        break; // no gain left from this edge
+                    }
+                    int j = pos[c];
+                    if (!inside(c) || j == (forward ? e : s)) {
+                        cut = true;
+                        continue;
+                    }
+                    int cd = forward ? j : j - 1;
+                    int d = order[forward ? j + 1 : j - 1];
+                    if (c == b || d == a) {
+                        continue;
+                    }
+                    int lo = Math.min(ab, cd), hi = Math.max(ab, cd);
+                    if (improves(tsp.twoOptDelta(order, lo + 1, hi))) {
+                        reverse(lo + 1, hi);
+                        touch(b);
+                        touch(c);
+                        touch(d);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Looks for an improving move of a segment of up to {@link OrOpt#MAX_SEGMENT} cities
+         * ending at a, inserted next to a neighbour of either end of the segment, as in
+         * {@link OrOpt}
+         */
+        private boolean orOpt(int a) {
+            int i = pos[a];
+            for (int dir = 0; dir < 2; dir++) {
+                boolean forward = dir == 0;
+                for (int len = forward ? 1 : 2; len <= OrOpt.MAX_SEGMENT; len++) {
+                    // The segment is x .. y, strictly inside the path
+                    int x = forward ? i : i - len + 1;
+                    int y = x + len - 1;
+                    if (x <= s || y >= e) {
+                        cut = true;
+                        continue;
+                    }
+                    int p = order[x - 1], first = order[x], last = order[y], nx = order[y + 1];
+                    double removed = tsp.cost(p, first) + tsp.cost(last, nx) - tsp.cost(p, nx);
+                    if (tryInsert(x, y, first, last, removed) || tryInsert(x, y, last, first, removed)) {
+                        touch(p);
+                        touch(nx);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tries inserting the segment x .. y on an edge next to a neighbour of one end
+         * @param end the end whose neighbours are tried
+         * @param other the other end
+         * @param removed the saving from taking the segment out and joining its neighbours
+         */
+        private boolean tryInsert(int x, int y, int end, int other, double removed) {
+            int k = neighbours.getK();
+            for (int m = 0; m < k; m++) {
+                int c = neighbours.get(end, m);
+                if (neighbourCosts[end * k + m] >= removed) {
+                    break; // gain criterion
+                }
+                if (!inside(c)) {
+                    cut = true;
+                    continue;
+                }
+                int j = pos[c];
+                if (x <= j && j <= y) {
+                    continue;
+                }
+                // Insert on the edge q = (order[q], order[q + 1]) before or after c
+                for (int q = j - 1; q <= j; q++) {
+                    if (q < s || q + 1 > e) {
+                        cut = true;
+                        continue;
+                    }
+                    if (x - 1 <= q && q <= y) {
+                        continue;
+                    }
+                    int u = order[q], w = order[q + 1];
+                    double kept     = tsp.orOptDelta(order, x, y - x + 1, q, false);
+                    double reversed = tsp.orOptDelta(order, x, y - x + 1, q, true);
+                    if (improves(Math.min(kept, reversed))) {
+                        moveSegment(x, y, q, reversed < kept);
+                        touch(end);
+                        touch(other);
+                        touch(u);
+                        touch(w);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Looks for an improving exchange of a with a city next to one of its neighbours c, which
+         * puts a beside c. Only neighbours nearer than a's further tour neighbour are tried.
+         */
+        private boolean swap(int a) {
+            int i = pos[a];
+            if (i <= s || i >= e) {
+                cut = true;
+                return false;
+            }
+            double bound = Math.max(tsp.cost(order[i - 1], a), tsp.cost(a, order[i + 1]));
+            int k = neighbours.getK();
+            for (int m = 0; m < k; m++) {
+                int c = neighbours.get(a, m);
+                if (neighbourCosts[a * k + m] >= bound) {
+                    break;
+                }
+                if (!inside(c)) {
+                    cut = true;
+                    continue;
+                }
+                int j = pos[c];
+                for (int q = j - 1; q <= j + 1; q += 2) {
+                    if (q <= s || q >= e) {
+                        cut = true;
+                        continue;
+                    }
+                    if (q == i || !improves(tsp.swapDelta(order, i, q))) {
+                        continue;
+                    }
+                    int b = order[q];
+                    int[] ends = { order[i - 1], order[i + 1], order[q - 1], order[q + 1] };
+                    order[i] = b;
+                    order[q] = a;
+                    pos[b] = i;
+                    pos[a] = q;
+                    touch(b);
+                    for (int end : ends) {
+                        touch(end);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves the segment x .. y onto the edge (order[q], order[q + 1]), by reversing the
+         * block from the segment to the edge and then each of its two parts
+         */
+        private void moveSegment(int x, int y, int q, boolean reversed) {
+            int len = y - x + 1;
+            if (q > y) {
+                // S B -> B S
+                reverse(x, q);
+                reverse(x, q - len);
+                if (!reversed) {
+                    reverse(q - len + 1, q);
+                }
+            } else {
+                // B S -> S B
+                reverse(q + 1, y);
+                reverse(q + len + 1, y);
+                if (!reversed) {
+                    reverse(q + 1, q + len);
+                }
+            }
+        }
+
+        /**
+         * Reverses the cities at positions i .. j
+         */
+        private void reverse(int i, int j) {
+            for (; i < j; i++, j--) {
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+                pos[order[i]] = i;
+                pos[order[j]] = j;
+            }
+        }
+    }
+
+    public static void main(String args[]) throws FileNotFoundException, IOException {
+        run(args, "Partitioned", PartitionedSearch::new);
+    }
+}
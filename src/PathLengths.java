@@ -0,0 +1,40 @@
+/**
+ * Computes the lengths of the edges of a path, for {@link TSP#cost(int[])}. The scalar version
+ * is built in; {@link #load()} looks for one using the JDK Vector API, which lives outside src
+ * as it only compiles and runs with the jdk.incubator.vector module.
+ */
+public interface PathLengths {
+    /**
+     * Sets d[k] to the distance from (xs[k], ys[k]) to (xs[k + 1], ys[k + 1]) for k &lt; m
+     */
+    void lengths(double[] xs, double[] ys, double[] d, int m);
+
+    /**
+     * Path lengths one edge at a time, in a loop simple enough for the JIT to vectorise itself
+     */
+    PathLengths SCALAR = (xs, ys, d, m) -> {
+        for (int k = 0; k < m; k++) {
+            double dx = xs[k] - xs[k + 1];
+            double dy = ys[k] - ys[k + 1];
+            d[k] = Math.sqrt(dx*dx + dy*dy);
+        }
+    };
+
+    /**
+     * Returns the Vector API version, VectorPathLengths, if it is on the class path and the
+     * jdk.incubator.vector module is present (<code>--add-modules jdk.incubator.vector</code>),
+     * unless the <code>tsp.vector</code> system property is false; otherwise the scalar version.
+     * Build it with
+     * <pre>javac --add-modules jdk.incubator.vector -cp classes -d classes vector/VectorPathLengths.java</pre>
+     */
+    static PathLengths load() {
+        if (Boolean.parseBoolean(System.getProperty("tsp.vector", "true"))) {
+            try {
+                return (PathLengths) Class.forName("VectorPathLengths").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not built, or the module isn't present
+            }
+        }
+        return SCALAR;
+    }
+}
@@ -16,9 +16,7 @@ public class SolverUI {
     }
 
     private void drawEdge(int city0, int city1) {
-        TSP.City a = tsp.getCities().get(city0);
-        TSP.City b = tsp.getCities().get(city1);
-        StdDraw.line(a.x, a.y, b.x, b.y);
+        StdDraw.line(tsp.getX(city0), tsp.getY(city0), tsp.getX(city1), tsp.getY(city1));
     }
 
     public void plot() {
@@ -26,11 +24,11 @@ public class SolverUI {
         int xMin, xMax, yMin, yMax;
         xMin = yMin = Integer.MAX_VALUE;
         xMax = yMax = Integer.MIN_VALUE;
-        for (TSP.City city : tsp.getCities()) {
-            xMin = Math.min(xMin, city.x);
-            xMax = Math.max(xMax, city.x);
-            yMin = Math.min(yMin, city.y);
-            yMax = Math.max(yMax, city.y);
+        for (int i = 0; i < tsp.size(); i++) {
+            xMin = Math.min(xMin, tsp.getX(i));
+            xMax = Math.max(xMax, tsp.getX(i));
+            yMin = Math.min(yMin, tsp.getY(i));
+            yMax = Math.max(yMax, tsp.getY(i));
         }
         StdDraw.setXscale(xMin, xMax);
         StdDraw.setYscale(yMin, yMax);
@@ -74,8 +72,8 @@ public class SolverUI {
 
         // Draw cities
         //StdDraw.setPenColor(StdDraw.BLACK);
-        //for (TSP.City city : tsp.getCities()) {
-        //    StdDraw.circle(city.x, city.y, pointSize);
+        //for (int i = 0; i < tsp.size(); i++) {
+        //    StdDraw.circle(tsp.getX(i), tsp.getY(i), pointSize);
         //}
 
         // Finally, display all in the window
@@ -107,6 +105,7 @@ public class SolverUI {
     ///////////////////////////////////////////////////////////
     public static void main(String[] args) throws IOException {
         TSP       tsp    = new TSP(args[0]);
+        System.out.println("Loaded " + tsp);
         AntSolver solver = new AntSolver(tsp);
         SolverUI  ui     = new SolverUI(solver);
         ui.solve(50000);
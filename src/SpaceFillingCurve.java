@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/**
+ * Orders of the plane that keep nearby points close together, used to renumber cities so that
+ * cities near each other in space are also near each other in memory.
+ */
+public enum SpaceFillingCurve {
+    /** Hilbert curve: consecutive cells are always adjacent, so the locality is the best of the two */
+    HILBERT,
+    /** Morton (Z-order) curve: bit interleaving, cheaper but with long jumps between quadrants */
+    MORTON;
+
+    /** Bits of each coordinate kept when mapping cities onto the curve */
+    private static final int BITS = 15;
+
+    /**
+     * @param x the x-coord of a grid cell, in [0, 2^BITS)
+     * @param y the y-coord of a grid cell, in [0, 2^BITS)
+     * @return the position of the cell along this curve, in [0, 2^(2*BITS))
+     */
+    public long index(int x, int y) {
+        if (this == MORTON) {
+            return spread(x) | (spread(y) << 1);
+        }
+        // Hilbert: walk down the quadrants, rotating the frame as the curve does
+        long d = 0;
+        for (int s = 1 << (BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x; x = y; y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return the bits of v spaced out to the even bit positions
+     */
+    private static long spread(int v) {
+        long r = 0;
+        for (int b = 0; b < BITS; b++) {
+            r |= (long) ((v >> b) & 1) << (2 * b);
+        }
+        return r;
+    }
+
+    /**
+     * Sorts cities along the curve
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @return the cities in curve order, ties broken by index
+     */
+    public int[] order(int[] xs, int[] ys) {
+        int n = xs.length;
+        int xMin = Integer.MAX_VALUE, xMax = Integer.MIN_VALUE, yMin = Integer.MAX_VALUE, yMax = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            xMin = Math.min(xMin, xs[i]); xMax = Math.max(xMax, xs[i]);
+            yMin = Math.min(yMin, ys[i]); yMax = Math.max(yMax, ys[i]);
+        }
+        // One scale for both axes, so the grid cells are square
+        double span = Math.max(1, Math.max((double) xMax - xMin, (double) yMax - yMin));
+        double scale = ((1 << BITS) - 1) / span;
+
+        // Curve index in the high bits, city in the low bits: one primitive sort does it all
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int gx = (int) ((xs[i] - (double) xMin) * scale);
+            int gy = (int) ((ys[i] - (double) yMin) * scale);
+            keys[i] = index(gx, gy) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Costs of the candidate edges of a {@link CandidateSet}, stored alongside it in compressed sparse
+ * row form together with their reciprocals, so memory stays O(nk) however large the instance.
+ * get() computes every cost from the coordinates, as fast as {@link TSP.DistanceMode#IMPLICIT},
+ * so the candidate set and the stored arrays are only built when first asked for.
+ *
+ * The local search engines read {@link #getCosts()} at each neighbour's position in the set (see
+ * {@link TSP#getNeighbourCosts(NeighbourLists)}), and the ant solver reads
+ * {@link #getInverseCosts()} as its visibilities.
+ */
+public class SparseCostMatrix implements CostMatrix {
+    private final int[] xs;
+    private final int[] ys;
+    private Supplier<CandidateSet> source;
+    private CandidateSet candidates;
+    private double[] cost;
+    private double[] inverse;
+
+    /**
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @param candidates the edges to store
+     */
+    public SparseCostMatrix(int[] xs, int[] ys, CandidateSet candidates) {
+        this(xs, ys, () -> candidates);
+    }
+
+    /**
+     * @param xs the x-coords of the cities
+     * @param ys the y-coords of the cities
+     * @param candidates builds the edges to store, when they are first asked for
+     */
+    public SparseCostMatrix(int[] xs, int[] ys, Supplier<CandidateSet> candidates) {
+        this.xs = xs;
+        this.ys = ys;
+        this.source = candidates;
+    }
+
+    @Override
+    public double get(int city1, int city2) {
+        // Computing the distance is cheaper than finding the edge in the row, and gives the same value
+        double dx = xs[city1] - xs[city2];
+        double dy = ys[city1] - ys[city2];
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    @Override
+    public synchronized long memoryUsage() {
+        long usage = candidates == null ? 0 : (long) candidates.getTargets().length * 4 + (long) candidates.size() * 4;
+        usage += cost == null ? 0 : (long) cost.length * 8;
+        usage += inverse == null ? 0 : (long) inverse.length * 8;
+        return usage;
+    }
+
+    /**
+     * @return the stored edges
+     */
+    public synchronized CandidateSet getCandidates() {
+        if (candidates == null) {
+            candidates = source.get();
+            source = null;
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the cost of each stored edge, aligned with {@link CandidateSet#getTargets()}
+     */
+    public synchronized double[] getCosts() {
+        if (cost == null) {
+            CandidateSet set = getCandidates();
+            int[] offsets = set.getOffsets();
+            int[] targets = set.getTargets();
+            double[] c = new double[targets.length];
+            IntStream.range(0, set.size()).parallel().forEach(i -> {
+                for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                    c[e] = get(i, targets[e]);
+                }
+            });
+            cost = c;
+        }
+        return cost;
+    }
+
+    /**
+     * @return the reciprocal of each stored cost, aligned with {@link CandidateSet#getTargets()}
+     */
+    public synchronized double[] getInverseCosts() {
+        if (inverse == null) {
+            double[] c = getCosts();
+            double[] inv = new double[c.length];
+            IntStream.range(0, c.length).parallel().forEach(e -> inv[e] = 1.0 / c[e]); // infinite for coincident cities
+            inverse = inv;
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * A {@link Tour} kept as a splay tree (Sleator and Tarjan, 1985) keyed implicitly by position,
+ * as suggested for very large instances by Fredman, Johnson, McGeoch and Ostheimer, "Data
+ * structures for traveling salesmen", 1995.
+ *
+ * The in-order sequence of the tree is the tour. Each node holds the size of its subtree, which
+ * gives a city's position, and a lazy reverse bit, which says its subtree's children are to be
+ * swapped. A path is reversed by splaying its ends so that the path is one subtree and flipping
+ * that subtree's bit, so every operation takes amortized O(log n) time however long the path is.
+ * Splaying also keeps the cities touched recently near the root, which suits local search.
+ */
+public class SplayTour implements Tour {
+    private static final int NONE = -1;
+
+    private final int n;
+    private final int head, tail; // sentinel nodes before and after the tour
+
+    private final int[] left;
+    private final int[] right;
+    private final int[] parent;
+    private final int[] size;
+    private final boolean[] flip;
+    private final int[] path; // scratch stack for pushing reverse bits down
+    private int root;
+
+    /**
+     * @param tour the cities in tour order
+     */
+    public SplayTour(int[] tour) {
+        n = tour.length;
+        head = n;
+        tail = n + 1;
+        left   = new int[n + 2];
+        right  = new int[n + 2];
+        parent = new int[n + 2];
+        size   = new int[n + 2];
+        flip   = new boolean[n + 2];
+        path   = new int[n + 2];
+
+        int[] sequence = new int[n + 2];
+        sequence[0] = head;
+        System.arraycopy(tour, 0, sequence, 1, n);
+        sequence[n + 1] = tail;
+        root = build(sequence, 0, n + 1, NONE);
+    }
+
+    /**
+     * Builds a balanced tree over sequence[lo..hi]
+     * @return its root
+     */
+    private int build(int[] sequence, int lo, int hi, int up) {
+        if (lo > hi) {
+            return NONE;
+        }
+        int mid = (lo + hi) >>> 1;
+        int x = sequence[mid];
+        parent[x] = up;
+        left[x]  = build(sequence, lo, mid - 1, x);
+        right[x] = build(sequence, mid + 1, hi, x);
+        update(x);
+        return x;
+    }
+
+    //// TREE OPERATIONS ////
+
+    private int size(int x) {
+        return x == NONE ? 0 : size[x];
+    }
+
+    private void update(int x) {
+        size[x] = 1 + size(left[x]) + size(right[x]);
+    }
+
+    /**
+     * Applies a node's reverse bit to its children
+     */
+    private void push(int x) {
+        if (flip[x]) {
+            int t = left[x];
+            left[x] = right[x];
+            right[x] = t;
+            if (left[x] != NONE) {
+                flip[left[x]] ^= true;
+            }
+            if (right[x] != NONE) {
+                flip[right[x]] ^= true;
+            }
+            flip[x] = false;
+        }
+    }
+
+    private void rotate(int x) {
+        int p = parent[x], g = parent[p];
+        if (left[p] == x) {
+            left[p] = right[x];
+            if (right[x] != NONE) {
+                parent[right[x]] = p;
+            }
+            right[x] = p;
+        } else {
+            right[p] = left[x];
+            if (left[x] != NONE) {
+                parent[left[x]] = p;
+            }
+            left[x] = p;
+        }
+        parent[p] = x;
+        parent[x] = g;
+        if (g == NONE) {
+            root = x;
+        } else if (left[g] == p) {
+            left[g] = x;
+        } else {
+            right[g] = x;
+        }
+        update(p);
+        update(x);
+    }
+
+    /**
+     * Splays x up until its parent is <code>goal</code> (NONE for the root)
+     */
+    private void splay(int x, int goal) {
+        // Reverse bits above x must be applied before its position means anything
+        int depth = 0;
+        for (int y = x; y != NONE; y = parent[y]) {
+            path[depth++] = y;
+        }
+        while (depth > 0) {
+            push(path[--depth]);
+        }
+
+        while (parent[x] != goal) {
+            int p = parent[x], g = parent[p];
+            if (g != goal) {
+                rotate((left[g] == p) == (left[p] == x) ? p : x); // zig-zig or zig-zag
+            }
+            rotate(x);
+        }
+    }
+
+    /**
+     * @return the node at index k of the sequence, counting the head sentinel as 0
+     */
+    private int find(int k) {
+        int x = root;
+        while (true) {
+            push(x);
+            int l = size(left[x]);
+            if (k < l) {
+                x = left[x];
+            } else if (k == l) {
+                return x;
+            } else {
+                k -= l + 1;
+                x = right[x];
+            }
+        }
+    }
+
+    /**
+     * @return the position of a city in the tour, from 0
+     */
+    private int position(int city) {
+        splay(city, NONE);
+        return size(left[city]) - 1;
+    }
+
+    /**
+     * @return the city at a position in the tour
+     */
+    private int at(int position) {
+        int x = find(position + 1);
+        splay(x, NONE);
+        return x;
+    }
+
+    //// TOUR ////
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int next(int city) {
+        int i = position(city) + 1;
+        return at(i == n ? 0 : i);
+    }
+
+    @Override
+    public int prev(int city) {
+        int i = position(city);
+        return at(i == 0 ? n - 1 : i - 1);
+    }
+
+    @Override
+    public boolean between(int a, int b, int c) {
+        int pa = position(a), pb = position(b), pc = position(c);
+        if (pa <= pc) {
+            return pa <= pb && pb <= pc;
+        }
+        return pb >= pa || pb <= pc;
+    }
+
+    @Override
+    public void reverse(int from, int to) {
+        int i = position(from), j = position(to);
+        if (i <= j) {
+            reverseRange(i, j);
+        } else if (i != j + 1) {
+            reverseRange(j + 1, i - 1); // the path wraps round, so reverse the rest of the tour
+        }
+    }
+
+    /**
+     * Reverses the cities at positions i..j
+     */
+    private void reverseRange(int i, int j) {
+        int before = find(i);    // sequence index i, i.e. position i - 1 or the head
+        splay(before, NONE);
+        int after = find(j + 2); // position j + 1 or the tail
+        splay(after, before);
+        flip[left[after]] ^= true;
+    }
+
+    @Override
+    public int[] toArray() {
+        int[] order = new int[n];
+        int count = 0;
+        int depth = 0;
+        int x = root;
+        // In-order walk with an explicit stack, pushing reverse bits on the way down
+        while (x != NONE || depth > 0) {
+            while (x != NONE) {
+                push(x);
+                path[depth++] = x;
+                x = left[x];
+            }
+            x = path[--depth];
+            if (x != head && x != tail) {
+                order[count++] = x;
+            }
+            x = right[x];
+        }
+        return order;
+    }
+}
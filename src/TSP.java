@@ -1,8 +1,8 @@
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
+import java.util.stream.IntStream;
 
 /**
  * A Travelling Salesman Problem (TSP)
@@ -11,10 +11,12 @@ import java.util.Scanner;
 public class TSP {
 
     /**
-     * A city/town/vertex/... in a TSP
+     * A city/town/vertex/... in a TSP.
+     * Only used by the {@link #getCities()} compatibility view; the TSP itself
+     * keeps its coordinates in flat arrays.
      * @author David Robertson
      */
-    public class City {
+    public static class City {
         public int x;
         public int y;
 
@@ -28,54 +30,711 @@ public class TSP {
          * @return the distance to the other city
          */
         public double distanceTo(City other) {
-            int dx = x - other.x;
-            int dy = y - other.y;
+            double dx = x - other.x;
+            double dy = y - other.y;
             return Math.sqrt(dx*dx + dy*dy);
         }
     }
 
-    private ArrayList<City> cities = new ArrayList<>();
+    /**
+     * How the distances between cities are obtained
+     */
+    public enum DistanceMode {
+        /** Precompute a full n*n cost matrix */
+        MATRIX,
+        /** Compute each distance from the city coordinates when it is asked for */
+        IMPLICIT,
+        /** Packed upper triangle of float distances (1/4 of the memory of MATRIX) */
+        PACKED_FLOAT,
+        /** Packed upper triangle of distances rounded to the nearest integer, as in TSPLIB (1/4 of MATRIX) */
+        PACKED_INT,
+        /**
+         * Packed upper triangle of doubles outside the Java heap. The matrix is memory-mapped
+         * from a temporary file if the <code>tsp.offheap.dir</code> system property names a directory,
+         * and is otherwise in direct memory, which <code>-XX:MaxDirectMemorySize</code> limits.
+         */
+        OFF_HEAP,
+        /**
+         * Costs of each city's nearest neighbours (see {@link #DEFAULT_NEIGHBOURS}) stored in
+         * compressed sparse rows for batch use; single lookups are computed as in IMPLICIT
+         */
+        SPARSE,
+        /**
+         * MATRIX for small instances, IMPLICIT above {@link #IMPLICIT_THRESHOLD} cities
+         * and SPARSE above {@link #SPARSE_THRESHOLD}
+         */
+        AUTO
+    }
+
+    /**
+     * Number of cities above which AUTO stops building a cost matrix.
+     * A 5000 city matrix is already ~200MB of doubles.
+     */
+    public static final int IMPLICIT_THRESHOLD = 5000;
+
+    /** Number of cities above which AUTO stores the costs of nearest neighbour edges */
+    public static final int SPARSE_THRESHOLD = 100000;
+
+    /** Number of tour edges costed per block by the SIMD-friendly tour cost loop */
+    private static final int COST_BLOCK = 256;
+
+    /** Edge lengths for the tour cost loop, with the Vector API if it is available */
+    private static final PathLengths PATH_LENGTHS = PathLengths.load();
+
+    /** Each thread's gathered coordinates and edge lengths for the tour cost loop */
+    private static final ThreadLocal<double[][]> COST_SCRATCH = ThreadLocal.withInitial(
+            () -> new double[][] { new double[COST_BLOCK + 1], new double[COST_BLOCK + 1], new double[COST_BLOCK] });
+
+    /**
+     * Default number of nearest neighbours per city in candidate lists,
+     * overridden by the <code>tsp.neighbours</code> system property
+     */
+    public static final int DEFAULT_NEIGHBOURS = 10;
+
+    /**
+     * Largest integer cost scale. Integer costs are only exact while tour costs stay below 2^53,
+     * so large instances want a small scale.
+     */
+    public static final long MAX_COST_SCALE = 1L << 20;
+
+    private int[] xs;
+    private int[] ys;
     private int n = 0;
-    private double[][] Cost;
+    private int[] originalIds; // file indices of each city in turn, null if in file order
+    private int[] groupStart;  // start of each city in originalIds, null if no cities were merged
+    private List<City> cities; // built on first call to getCities()
+    private CostMatrix Cost; // null in IMPLICIT mode
+    private DistanceMode distanceMode;
+    private long costBuildMillis = 0;
+    private long costScale = 0; // 0 for real-valued costs
+    private String contentKey; // computed on first use
+    private KdTree kdTree;     // built on first use
+    private NeighbourLists neighbourLists; // most recently requested lists
+    private Delaunay delaunay; // built on first use
 
     /**
-     * Creates a new TSP from a file
+     * Creates a new TSP from a file.
+     * The distance mode is taken from the <code>tsp.distance</code> system property
+     * (matrix, implicit, packed_float, packed_int, off_heap, sparse or auto), defaulting to AUTO,
+     * the integer cost scale from <code>tsp.scale</code>, defaulting to 0 (real-valued costs),
+     * the city renumbering from <code>tsp.renumber</code> (hilbert, morton or none, the default)
+     * and whether to merge coincident cities from <code>tsp.dedup</code>, defaulting to false.
      * @param fname the path of the TSP definition file
      * @throws IOException
      */
     public TSP(String fname) throws IOException {
+        this(fname, DistanceMode.valueOf(System.getProperty("tsp.distance", "auto").toUpperCase()),
+             Long.getLong("tsp.scale", 0), renumbering(System.getProperty("tsp.renumber", "none")),
+             Boolean.getBoolean("tsp.dedup"));
+    }
+
+    private static SpaceFillingCurve renumbering(String name) {
+        return name.equalsIgnoreCase("none") ? null : SpaceFillingCurve.valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Creates a new TSP with real-valued costs
+     * @param fname the path of the TSP definition file
+     * @param mode how distances between cities should be obtained
+     * @throws IOException
+     */
+    public TSP(String fname, DistanceMode mode) throws IOException {
+        this(fname, mode, 0);
+    }
+
+    /**
+     * Creates a new TSP from a file in any of the layouts understood by {@link TSPReader},
+     * or from a {@link TSPBinary} file if the name ends in .tspb. A packed cost matrix stored
+     * in a binary file is used in place when the mode is AUTO or matches it and there is no scale.
+     *
+     * With a non-zero <code>scale</code> every cost is the integer nint(scale * distance), with
+     * nint rounding halves up as TSPLIB does; a scale of 1 gives the TSPLIB EUC_2D costs. Tour costs
+     * and move deltas are then exact integers, so local search sees no rounding noise and can
+     * compare costs for equality. A scale can't be combined with the packed modes, whose stored
+     * costs are already rounded.
+     * @param fname the path of the TSP definition file
+     * @param mode how distances between cities should be obtained
+     * @param scale the integer cost scale, or 0 for real-valued costs
+     * @throws IOException
+     */
+    public TSP(String fname, DistanceMode mode, long scale) throws IOException {
+        this(fname, mode, scale, null);
+    }
+
+    /**
+     * Creates a new TSP whose cities are renumbered along a space-filling curve, so that cities
+     * close together in the plane are close together in every per-city array and cost matrix row.
+     * All methods taking or returning city indices use the new numbering; {@link #toOriginal(int[])}
+     * and {@link #fromOriginal(int[])} convert tours to and from the numbering of the file, and
+     * {@link #getCities()} is in file order. A binary file keeps the numbering it was written with.
+     * Coincident cities are merged only if the <code>tsp.dedup</code> system property is true.
+     * @param fname the path of the TSP definition file
+     * @param mode how distances between cities should be obtained
+     * @param scale the integer cost scale, or 0 for real-valued costs
+     * @param renumber the curve to renumber the cities along, or null to keep the file order
+     * @throws IOException
+     */
+    public TSP(String fname, DistanceMode mode, long scale, SpaceFillingCurve renumber) throws IOException {
+        this(fname, mode, scale, renumber, Boolean.getBoolean("tsp.dedup"));
+    }
+
+    /**
+     * Creates a new TSP, optionally merging cities at exactly the same coordinates into one.
+     * Coincident cities are free to visit one after another, so the reduced instance has the same
+     * optimal tour cost; it needs less memory and has no zero-length edges. The merged cities are
+     * numbered as described for {@link #TSP(String, DistanceMode, long, SpaceFillingCurve)}, and
+     * {@link #toOriginal(int[])} expands each of them back into its file cities.
+     * @param fname the path of the TSP definition file
+     * @param mode how distances between cities should be obtained
+     * @param scale the integer cost scale, or 0 for real-valued costs
+     * @param renumber the curve to renumber the cities along, or null to keep the file order
+     * @param dedup whether to merge coincident cities
+     * @throws IOException
+     */
+    public TSP(String fname, DistanceMode mode, long scale, SpaceFillingCurve renumber, boolean dedup) throws IOException {
+        if (scale < 0 || scale > MAX_COST_SCALE) {
+            throw new IllegalArgumentException("Cost scale must be between 0 and " + MAX_COST_SCALE + ", got " + scale);
+        }
+        if (scale != 0 && (mode == DistanceMode.PACKED_FLOAT || mode == DistanceMode.PACKED_INT)) {
+            // The packed values are already rounded, so scaling them would round twice
+            throw new IllegalArgumentException("A cost scale can't be used with " + mode + " costs");
+        }
+        costScale = scale;
+
         // Read in data file
-        Scanner sc = new Scanner(new File(fname));
-        while (sc.hasNext()) {
-            City city = new City(sc.nextInt(), sc.nextInt());
-            cities.add(city);
-            n++;
+        if (fname.endsWith(TSPBinary.EXTENSION)) {
+            TSPBinary bin = new TSPBinary(fname);
+            xs = bin.getXs();
+            ys = bin.getYs();
+            n  = bin.size();
+            originalIds = bin.getOriginalIds();
+            groupStart = bin.getGroupStarts();
+            neighbourLists = bin.getNeighbourLists();
+            MappedCostMatrix stored = bin.getCostMatrix();
+            if (stored != null) {
+                DistanceMode storedMode = stored.isRounded() ? DistanceMode.PACKED_INT : DistanceMode.PACKED_FLOAT;
+                if (scale == 0 && (mode == DistanceMode.AUTO || mode == storedMode)) {
+                    Cost = stored;
+                    distanceMode = storedMode;
+                    return;
+                }
+            }
+        } else {
+            TSPReader reader = new TSPReader(fname);
+            xs = reader.getXs();
+            ys = reader.getYs();
+            n  = reader.size();
+            if (dedup) {
+                collapseDuplicates();
+            }
+            if (renumber != null) {
+                renumber(renumber.order(xs, ys));
+            }
+        }
+
+        if (mode == DistanceMode.AUTO) {
+            mode = n > SPARSE_THRESHOLD ? DistanceMode.SPARSE
+                 : n > IMPLICIT_THRESHOLD ? DistanceMode.IMPLICIT : DistanceMode.MATRIX;
+        }
+        distanceMode = mode;
+        if (distanceMode == DistanceMode.IMPLICIT) {
+            return;
         }
-        sc.close();
 
         // Construct cost matrix
-        Cost = new double[n][n];
-        for (int i = 0; i < n - 1; i++) {
-            for (int j = i + 1; j < n; j++) {
-                City city_i = cities.get(i);
-                City city_j = cities.get(j);
-                Cost[i][j] = Cost[j][i] = city_i.distanceTo(city_j);
+        long start = System.nanoTime();
+        switch (distanceMode) {
+            case PACKED_FLOAT:
+            case PACKED_INT:
+                Cost = packedCostMatrix(distanceMode == DistanceMode.PACKED_INT);
+                break;
+            case SPARSE:
+                Cost = new SparseCostMatrix(xs, ys, () -> new CandidateSet(getNeighbourLists()));
+                break;
+            case OFF_HEAP:
+                Cost = new OffHeapCostMatrix(xs, ys, System.getProperty("tsp.offheap.dir"));
+                break;
+            default:
+                Cost = fullCostMatrix();
+        }
+        costBuildMillis = (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Merges cities with the same coordinates, keeping the first of each in its file position
+     */
+    private void collapseDuplicates() {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (long) xs[i] << 32 | (ys[i] & 0xffffffffL);
+        }
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        if (distinct == n) {
+            return;
+        }
+
+        // Number the merged cities in order of first appearance
+        int[] cityOfKey = new int[distinct];
+        Arrays.fill(cityOfKey, -1);
+        int[] city = new int[n];
+        int[] newXs = new int[distinct];
+        int[] newYs = new int[distinct];
+        int[] count = new int[distinct + 1];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int key = Arrays.binarySearch(sorted, 0, distinct, keys[i]);
+            if (cityOfKey[key] < 0) {
+                cityOfKey[key] = m;
+                newXs[m] = xs[i];
+                newYs[m] = ys[i];
+                m++;
+            }
+            city[i] = cityOfKey[key];
+            count[city[i] + 1]++;
+        }
+
+        // Group the file indices by city, in file order within each city
+        for (int c = 0; c < distinct; c++) {
+            count[c + 1] += count[c];
+        }
+        groupStart = count.clone();
+        originalIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            originalIds[count[city[i]]++] = i;
+        }
+        xs = newXs;
+        ys = newYs;
+        n  = distinct;
+    }
+
+    /**
+     * Moves city order[i] to index i
+     */
+    private void renumber(int[] order) {
+        int[] newXs = new int[n];
+        int[] newYs = new int[n];
+        int[] newIds = new int[fileSize()];
+        int[] newStart = groupStart == null ? null : new int[n + 1];
+        int t = 0;
+        for (int i = 0; i < n; i++) {
+            int c = order[i];
+            newXs[i] = xs[c];
+            newYs[i] = ys[c];
+            if (newStart != null) {
+                newStart[i] = t;
+            }
+            for (int g = groupStart(c); g < groupStart(c + 1); g++) {
+                newIds[t++] = originalIds == null ? c : originalIds[g];
+            }
+        }
+        if (newStart != null) {
+            newStart[n] = t;
+        }
+        xs = newXs;
+        ys = newYs;
+        originalIds = newIds;
+        groupStart = newStart;
+    }
+
+    /**
+     * Builds a packed cost matrix, or maps it from the {@link ArtifactCache} if a cache is configured
+     * @param rounded whether to round distances to ints rather than store floats
+     */
+    private CostMatrix packedCostMatrix(boolean rounded) {
+        ArtifactCache cache = ArtifactCache.getDefault();
+        String artifact = rounded ? "cost_int" : "cost_float";
+        if (cache != null) {
+            TSPBinary cached = cache.load(this, artifact);
+            if (cached != null && cached.getCostMatrix() != null && cached.getCostMatrix().isRounded() == rounded) {
+                return cached.getCostMatrix();
+            }
+        }
+        PackedCostMatrix built = rounded ? new PackedIntCostMatrix(xs, ys) : new PackedFloatCostMatrix(xs, ys);
+        if (cache != null) {
+            cache.store(this, artifact, built, null, null);
+        }
+        return built;
+    }
+
+    /**
+     * Builds the full cost matrix, or loads it from the {@link ArtifactCache} if a cache is configured
+     */
+    private CostMatrix fullCostMatrix() {
+        ArtifactCache cache = ArtifactCache.getDefault();
+        String artifact = "cost_double";
+        if (cache != null) {
+            TSPBinary cached = cache.load(this, artifact);
+            if (cached != null && cached.getFullCostMatrix() != null) {
+                return cached.getFullCostMatrix();
+            }
+        }
+        FullCostMatrix built = new FullCostMatrix(xs, ys);
+        if (cache != null) {
+            cache.store(this, artifact, built, null, null);
+        }
+        return built;
+    }
+
+    /**
+     * @return the spatial index over the cities, built on first use or loaded from the
+     * {@link ArtifactCache} if a cache is configured
+     */
+    public synchronized KdTree getKdTree() {
+        if (kdTree != null) {
+            return kdTree;
+        }
+        ArtifactCache cache = ArtifactCache.getDefault();
+        String artifact = "kdtree";
+        if (cache != null) {
+            TSPBinary cached = cache.load(this, artifact);
+            if (cached != null && cached.getKdTree() != null) {
+                kdTree = cached.getKdTree();
+                return kdTree;
+            }
+        }
+        kdTree = new KdTree(xs, ys);
+        if (cache != null) {
+            cache.store(this, artifact, null, null, kdTree);
+        }
+        return kdTree;
+    }
+
+    /**
+     * Builds a tour by always moving to the nearest city not yet visited, using the spatial
+     * index so that it takes O(n log n) time on typical instances rather than O(n^2)
+     * @param start the first city of the tour
+     * @return the cities in tour order
+     */
+    public int[] nearestNeighbourTour(int start) {
+        KdTree.Unvisited unvisited = getKdTree().unvisited();
+        int[] tour = new int[n];
+        int city = start;
+        for (int i = 0; i < n; i++) {
+            tour[i] = city;
+            unvisited.remove(city);
+            city = unvisited.nearest(city);
+        }
+        return tour;
+    }
+
+    /**
+     * @return the default-sized neighbour lists (see {@link #DEFAULT_NEIGHBOURS})
+     */
+    public NeighbourLists getNeighbourLists() {
+        return getNeighbourLists(Integer.getInteger("tsp.neighbours", DEFAULT_NEIGHBOURS));
+    }
+
+    /**
+     * Returns the k nearest neighbours of every city. The lists are built on first use, or
+     * loaded from the {@link ArtifactCache} if a cache is configured, and kept until a
+     * different k is asked for.
+     * @param k the number of neighbours per city
+     * @return the neighbour lists
+     */
+    public synchronized NeighbourLists getNeighbourLists(int k) {
+        k = Math.max(0, Math.min(k, n - 1));
+        if (neighbourLists != null && neighbourLists.getK() == k) {
+            return neighbourLists;
+        }
+        ArtifactCache cache = ArtifactCache.getDefault();
+        String artifact = "knn" + k;
+        if (cache != null) {
+            TSPBinary cached = cache.load(this, artifact);
+            if (cached != null && cached.getNeighbourLists() != null && cached.getNeighbourLists().getK() == k) {
+                neighbourLists = cached.getNeighbourLists();
+                return neighbourLists;
             }
         }
+        neighbourLists = new NeighbourLists(this, k);
+        if (cache != null) {
+            cache.store(this, artifact, null, neighbourLists, null);
+        }
+        return neighbourLists;
     }
 
     /**
-     * @return the list of all cities in the TSP
+     * @return the Delaunay triangulation of the cities, built on first use
+     */
+    public synchronized Delaunay getDelaunay() {
+        if (delaunay == null) {
+            delaunay = new Delaunay(xs, ys);
+        }
+        return delaunay;
+    }
+
+    /**
+     * Returns a candidate edge set made of the k nearest neighbours of each city, its Delaunay
+     * edges, or both. On planar instances the Delaunay graph averages under 6 edges per city and
+     * contains almost every edge of an optimal tour. The triangulation leaves out coincident
+     * cities, so those are added to the Delaunay edges from {@link #getCandidatesWithin(double)}
+     * with radius 0.
+     * @param k the number of nearest neighbours per city to include (0 for none)
+     * @param delaunay whether to include the Delaunay edges
+     * @return the candidate set
+     */
+    public CandidateSet getCandidateSet(int k, boolean delaunay) {
+        CandidateSet knn = k > 0 ? new CandidateSet(getNeighbourLists(k)) : null;
+        if (!delaunay) {
+            return knn != null ? knn : new CandidateSet(xs, ys, new int[n][0]);
+        }
+        CandidateSet edges = CandidateSet.union(xs, ys, getDelaunay().getCandidates(), getCandidatesWithin(0));
+        return knn != null ? CandidateSet.union(xs, ys, knn, edges) : edges;
+    }
+
+    /**
+     * Returns, for each city, every other city within a distance, found with the k-d tree's
+     * fixed-radius query. Unlike k-nearest lists, this adapts to local density: a city in a
+     * cluster gets all of the cluster, and an isolated one may get none.
+     * @param r the radius
+     * @return the candidate set, nearest first
+     */
+    public CandidateSet getCandidatesWithin(double r) {
+        KdTree kd = getKdTree();
+        int[][] adjacency = new int[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[][] found = { new int[8] };
+            int[] count = { 0 };
+            kd.forEachWithin(xs[i], ys[i], r, c -> {
+                if (c != i) {
+                    if (count[0] == found[0].length) {
+                        found[0] = Arrays.copyOf(found[0], 2 * count[0]);
+                    }
+                    found[0][count[0]++] = c;
+                }
+            });
+            adjacency[i] = Arrays.copyOf(found[0], count[0]);
+        });
+        return new CandidateSet(xs, ys, adjacency);
+    }
+
+    /**
+     * Returns the costs of the edges in a candidate set, laid out alongside it. In SPARSE mode
+     * this is the TSP's own cost store when the set is its nearest neighbour set.
+     * @param candidates the candidate set
+     * @return the costs of its edges
+     */
+    public SparseCostMatrix getCandidateCosts(CandidateSet candidates) {
+        if (Cost instanceof SparseCostMatrix
+                && ((SparseCostMatrix) Cost).getCandidates().getTargets() == candidates.getTargets()) {
+            return (SparseCostMatrix) Cost;
+        }
+        return new SparseCostMatrix(xs, ys, candidates);
+    }
+
+    /**
+     * Returns the cost from each city to each of its neighbours, at city * k + i for the i-th
+     * neighbour, so that local search can read them in order instead of calling
+     * {@link #cost(int, int)}. They are always the values cost() returns; in SPARSE mode with
+     * real-valued costs they are the TSP's own stored costs when the lists are its default ones.
+     * @param lists the neighbour lists
+     * @return the costs, aligned with {@link NeighbourLists#getNeighbours()}
+     */
+    public double[] getNeighbourCosts(NeighbourLists lists) {
+        if (costScale == 0 && Cost instanceof SparseCostMatrix) {
+            return getCandidateCosts(new CandidateSet(lists)).getCosts();
+        }
+        int k = lists.getK();
+        int[] neighbours = lists.getNeighbours();
+        double[] costs = new double[neighbours.length];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            for (int e = i * k; e < (i + 1) * k; e++) {
+                costs[e] = cost(i, neighbours[e]);
+            }
+        });
+        return costs;
+    }
+
+    /**
+     * @return the neighbour lists built so far, or null (doesn't build any)
+     */
+    public synchronized NeighbourLists getBuiltNeighbourLists() {
+        return neighbourLists;
+    }
+
+    /**
+     * @return a hash of the city coordinates, identifying the instance whatever file it came from
+     */
+    public String getContentKey() {
+        if (contentKey == null) {
+            contentKey = ArtifactCache.key(xs, ys);
+        }
+        return contentKey;
+    }
+
+    /**
+     * Compatibility view of the city coordinates, in file order even if the cities have been
+     * renumbered or merged. The list is built on first use; prefer {@link #getX(int)} and
+     * {@link #getY(int)} in loops.
+     * @return the list of all cities in the TSP file
      */
     public List<City> getCities() {
+        if (cities == null) {
+            City[] list = new City[fileSize()];
+            for (int c = 0; c < n; c++) {
+                City city = new City(xs[c], ys[c]);
+                for (int g = groupStart(c); g < groupStart(c + 1); g++) {
+                    list[originalIds == null ? c : originalIds[g]] = city;
+                }
+            }
+            cities = Collections.unmodifiableList(Arrays.asList(list));
+        }
         return cities;
     }
 
+    //// RENUMBERING ////
+
+    /**
+     * @return the start of a city's file indices in {@link #getOriginalIds()}
+     */
+    private int groupStart(int city) {
+        return groupStart == null ? city : groupStart[city];
+    }
+
+    /**
+     * @return the number of cities in the file, counting each of any merged cities
+     */
+    public int fileSize() {
+        return originalIds == null ? n : originalIds.length;
+    }
+
+    /**
+     * @return the index a city has in the file (the first of them, if cities were merged into it)
+     */
+    public int originalId(int city) {
+        return originalIds == null ? city : originalIds[groupStart(city)];
+    }
+
+    /**
+     * @return the file indices of each city in turn, or null if the cities are in file order
+     * (not to be modified). Those of city c start at index c, or at {@link #getGroupStarts()}[c]
+     * if cities were merged.
+     */
+    public int[] getOriginalIds() {
+        return originalIds;
+    }
+
+    /**
+     * @return the start of each city's file indices in {@link #getOriginalIds()}, plus the total
+     * at the end, or null if no cities were merged (not to be modified)
+     */
+    public int[] getGroupStarts() {
+        return groupStart;
+    }
+
+    /**
+     * @param tour a tour in this TSP's numbering
+     * @return the tour in the numbering of the file, with merged cities expanded back into the
+     * cities they stand for (the same array if the cities are in file order)
+     */
+    public int[] toOriginal(int[] tour) {
+        if (originalIds == null) {
+            return tour;
+        }
+        int length = 0;
+        for (int city : tour) {
+            length += groupStart(city + 1) - groupStart(city);
+        }
+        int[] mapped = new int[length];
+        int t = 0;
+        for (int city : tour) {
+            for (int g = groupStart(city); g < groupStart(city + 1); g++) {
+                mapped[t++] = originalIds[g];
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * @param tour a tour in the numbering of the file, e.g. read with {@link TSPReader#readTour(String)}
+     * @return the tour in this TSP's numbering, visiting each merged city where the tour first
+     * reaches one of its file cities (the same array if the cities are in file order)
+     */
+    public int[] fromOriginal(int[] tour) {
+        if (originalIds == null) {
+            return tour;
+        }
+        int[] internal = new int[fileSize()];
+        for (int c = 0; c < n; c++) {
+            for (int g = groupStart(c); g < groupStart(c + 1); g++) {
+                internal[originalIds[g]] = c;
+            }
+        }
+        boolean[] seen = new boolean[n];
+        int[] mapped = new int[tour.length];
+        int length = 0;
+        for (int city : tour) {
+            int c = internal[city];
+            if (!seen[c]) {
+                seen[c] = true;
+                mapped[length++] = c;
+            }
+        }
+        return length == mapped.length ? mapped : Arrays.copyOf(mapped, length);
+    }
+
+    /**
+     * @return the x-coord of a city
+     */
+    public int getX(int city) {
+        return xs[city];
+    }
+
+    /**
+     * @return the y-coord of a city
+     */
+    public int getY(int city) {
+        return ys[city];
+    }
+
+    /**
+     * @return the Euclidean distance between two cities, computed from their coordinates
+     */
+    public double distance(int city1, int city2) {
+        double dx = xs[city1] - xs[city2];
+        double dy = ys[city1] - ys[city2];
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
     /**
      * @return the cost of travelling between two cities
      */
     public double cost(int city1, int city2) {
-        return Cost[city1][city2];
+        double cost = Cost == null ? distance(city1, city2) : Cost.get(city1, city2);
+        if (costScale != 0) {
+            return Math.floor(cost * costScale + 0.5); // nint
+        }
+        return cost;
+    }
+
+    /**
+     * @return the cost of travelling between two cities in integer cost mode
+     * @throws IllegalStateException if the TSP has real-valued costs
+     */
+    public long integerCost(int city1, int city2) {
+        if (costScale == 0) {
+            throw new IllegalStateException("TSP has real-valued costs");
+        }
+        return (long) cost(city1, city2);
+    }
+
+    /**
+     * @param tour an integer array containing a permutation of the integers 0 to n-1
+     * @return the total cost of the tour in integer cost mode, summed exactly
+     * @throws IllegalStateException if the TSP has real-valued costs
+     */
+    public long integerCost(int[] tour) {
+        long cost = 0;
+        for (int i = 0; i < n - 1; i++) {
+            cost += integerCost(tour[i], tour[i + 1]);
+        }
+        return cost + integerCost(tour[0], tour[n - 1]);
     }
 
     /**
@@ -86,14 +745,143 @@ public class TSP {
         if (tour.length < n) {
             return -999;
         }
+        if (costScale != 0) {
+            return integerCost(tour);
+        }
+        if (distanceMode != DistanceMode.PACKED_FLOAT && distanceMode != DistanceMode.PACKED_INT) {
+            return coordinateCost(tour);
+        }
         double cost = 0;
         for (int i = 0; i < n - 1; i++) {
-            cost = cost + Cost[tour[i]][tour[i + 1]];
+            cost = cost + cost(tour[i], tour[i + 1]);
         }
-        cost = cost + Cost[tour[0]][tour[n - 1]];
+        cost = cost + cost(tour[0], tour[n - 1]);
         return cost;
     }
 
+    /**
+     * Costs many tours at once, spread over all cores. Each tour's edges fill the vector lanes
+     * within its own blocks, as in {@link #cost(int[])}, and each thread reuses its own scratch
+     * space, so a colony or population costs no more per tour than one tour alone.
+     * @param tours the tours
+     * @return the cost of each tour, as {@link #cost(int[])} would return it
+     */
+    public double[] cost(int[][] tours) {
+        double[] costs = new double[tours.length];
+        IntStream.range(0, tours.length).parallel().forEach(t -> costs[t] = cost(tours[t]));
+        return costs;
+    }
+
+    /**
+     * Tour cost computed from the coordinates, for distance modes whose costs are exact Euclidean
+     * distances. Coordinates are gathered block by block into contiguous arrays, whose edge
+     * lengths {@link PathLengths} computes across SIMD lanes, with the Vector API when it is
+     * available or else in a loop the JIT can vectorise; the lengths are then summed in tour
+     * order, which gives exactly the scalar result.
+     */
+    private double coordinateCost(int[] tour) {
+        double[][] scratch = COST_SCRATCH.get();
+        double[] gx = scratch[0];
+        double[] gy = scratch[1];
+        double[] d  = scratch[2];
+        double cost = 0;
+        for (int start = 0; start < n - 1; start += COST_BLOCK) {
+            int m = Math.min(COST_BLOCK, n - 1 - start); // edges in this block
+
+            // Gather
+            for (int k = 0; k <= m; k++) {
+                int city = tour[start + k];
+                gx[k] = xs[city];
+                gy[k] = ys[city];
+            }
+
+            PATH_LENGTHS.lengths(gx, gy, d, m);
+            for (int k = 0; k < m; k++) {
+                cost = cost + d[k];
+            }
+        }
+        cost = cost + distance(tour[0], tour[n - 1]);
+        return cost;
+    }
+
+    //// MOVE DELTAS ////
+    // Each returns the change in tour cost a move would make, in O(1), without applying it.
+    // Positions are indices into the tour, which is treated as cyclic.
+    // In integer cost mode the deltas are exact integers: every term is an integer well below 2^53.
+
+    /**
+     * 2-opt: reverse the section tour[i..j]
+     * @param i the position of the first city of the section
+     * @param j the position of the last city of the section, with i &lt;= j
+     */
+    public double twoOptDelta(int[] tour, int i, int j) {
+        int len = tour.length;
+        if (i == 0 && j == len - 1) {
+            return 0; // reversing the whole tour
+        }
+        int a = tour[i == 0 ? len - 1 : i - 1], b = tour[i];
+        int c = tour[j], d = tour[j == len - 1 ? 0 : j + 1];
+        return cost(a, c) + cost(b, d) - cost(a, b) - cost(c, d);
+    }
+
+    /**
+     * Or-opt: move the segment of <code>segLen</code> cities starting at position i to between
+     * positions j and j+1, optionally reversing it
+     * @param i the position of the first city of the segment
+     * @param segLen the number of cities in the segment
+     * @param j a position outside the segment and not just before it
+     * @param reversed whether the segment is inserted back to front
+     */
+    public double orOptDelta(int[] tour, int i, int segLen, int j, boolean reversed) {
+        int len = tour.length;
+        int p  = tour[(i - 1 + len) % len];
+        int s1 = tour[i];
+        int s2 = tour[(i + segLen - 1) % len];
+        int nx = tour[(i + segLen) % len];
+        int c  = tour[j];
+        int d  = tour[(j + 1) % len];
+        double removed = cost(p, s1) + cost(s2, nx) + cost(c, d);
+        double added   = cost(p, nx) + (reversed ? cost(c, s2) + cost(s1, d) : cost(c, s1) + cost(s2, d));
+        return added - removed;
+    }
+
+    /**
+     * Node swap: exchange the cities at positions i and j
+     */
+    public double swapDelta(int[] tour, int i, int j) {
+        int len = tour.length;
+        if (i == j || len <= 3) {
+            return 0;
+        }
+        if ((j + 1) % len == i) { // make j follow i if they are adjacent
+            int t = i; i = j; j = t;
+        }
+        int a = tour[i], b = tour[j];
+        int pa = tour[(i - 1 + len) % len], na = tour[(i + 1) % len];
+        int pb = tour[(j - 1 + len) % len], nb = tour[(j + 1) % len];
+        if (na == b) {
+            // pa a b nb -> pa b a nb
+            return cost(pa, b) + cost(a, nb) - cost(pa, a) - cost(b, nb);
+        }
+        return cost(pa, b) + cost(b, na) + cost(pb, a) + cost(a, nb)
+             - cost(pa, a) - cost(a, na) - cost(pb, b) - cost(b, nb);
+    }
+
+    /**
+     * Double bridge: with the tour split into A = [0, i), B = [i, j), C = [j, k), D = [k, n),
+     * reconnect it as A C B D
+     * @param i the start of B, with 0 &lt; i &lt; j &lt; k &lt; n
+     * @param j the start of C
+     * @param k the start of D
+     */
+    public double doubleBridgeDelta(int[] tour, int i, int j, int k) {
+        int a1 = tour[i - 1], b0 = tour[i];
+        int b1 = tour[j - 1], c0 = tour[j];
+        int c1 = tour[k - 1], d0 = tour[k];
+        return cost(a1, c0) + cost(c1, b0) + cost(b1, d0)
+             - cost(a1, b0) - cost(b1, c0) - cost(c1, d0);
+    }
+
 
     /**
      * @return the number of cities in the tsp
@@ -101,4 +889,46 @@ public class TSP {
     public int size() {
         return n;
     }
+
+    /**
+     * @return the wall clock time taken to build the cost matrix, in milliseconds (0 in IMPLICIT mode)
+     */
+    public long getCostBuildTime() {
+        return costBuildMillis;
+    }
+
+    /**
+     * @return the integer cost scale, or 0 if costs are real-valued
+     */
+    public long getCostScale() {
+        return costScale;
+    }
+
+    /**
+     * @return whether costs are exact integers (see {@link #TSP(String, DistanceMode, long)})
+     */
+    public boolean isIntegerCost() {
+        return costScale != 0;
+    }
+
+    /**
+     * @return the cost matrix backend, or null in IMPLICIT mode
+     */
+    public CostMatrix getCostMatrix() {
+        return Cost;
+    }
+
+    @Override
+    public String toString() {
+        String costs = costScale == 0 ? "" : ", integer costs x" + costScale;
+        String merged = fileSize() == n ? "" : " merged from " + fileSize();
+        return n + " cities" + merged + " (" + distanceMode + " distances" + costs + ", built in " + costBuildMillis + "ms)";
+    }
+
+    /**
+     * @return the distance mode in use (never AUTO)
+     */
+    public DistanceMode getDistanceMode() {
+        return distanceMode;
+    }
 }
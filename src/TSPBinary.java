@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary (.tspb) instance format, opened with a memory map so that large instances and
+ * their precomputed artifacts load without parsing or rebuilding anything.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *  0  int  magic "TSPB"
+ *  4  int  format version
+ *  8  int  number of cities n
+ * 12  int  number of sections s
+ * 16  s * (int type, int param, long offset, long length)  section table
+ *     sections, each starting on an 8 byte boundary
+ * </pre>
+ * Section types are {@link #COORDS} (n x-coords then n y-coords), {@link #COST_FLOAT} and
+ * {@link #COST_INT} (a packed upper-triangular cost matrix, see {@link PackedCostMatrix}), and
+ * {@link #NEIGHBOURS} (k-nearest neighbour lists, with k as the section parameter) and
+ * {@link #ORDER} (the original file indices of each city, if the cities were renumbered or merged)
+ * and {@link #GROUPS} (where each city's indices start in ORDER, if cities were merged),
+ * {@link #COST_DOUBLE} (the same upper triangle as doubles, for a {@link FullCostMatrix}) and
+ * {@link #KDTREE} (a {@link KdTree}, with its number of nodes as the section parameter).
+ */
+public class TSPBinary {
+    public static final String EXTENSION = ".tspb";
+
+    private static final int MAGIC   = 0x42505354; // "TSPB" read little-endian
+    private static final int VERSION = 1;
+
+    public static final int COORDS      = 1;
+    public static final int COST_FLOAT  = 2;
+    public static final int COST_INT    = 3;
+    public static final int NEIGHBOURS  = 4;
+    public static final int ORDER       = 5;
+    public static final int GROUPS      = 6;
+    public static final int COST_DOUBLE = 7;
+    public static final int KDTREE      = 8;
+
+    private static final int HEADER_SIZE  = 16;
+    private static final int SECTION_SIZE = 24;
+
+    private final MappedByteBuffer buf;
+    private final int n;
+    private final int[] xs;
+    private final int[] ys;
+    private MappedCostMatrix costMatrix;
+    private NeighbourLists neighbourLists;
+    private FullCostMatrix fullCostMatrix;
+    private KdTree kdTree;
+    private int[] originalIds;
+    private int[] groupStarts;
+
+    /**
+     * Opens a binary instance file
+     * @param path the path of the file
+     * @throws IOException if the file can't be read or isn't a valid .tspb file
+     */
+    public TSPBinary(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + ": too large to map");
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException(path + ": not a " + EXTENSION + " file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException(path + ": unsupported version " + buf.getInt(4));
+        }
+        n = buf.getInt(8);
+        int sections = buf.getInt(12);
+        if (n < 0 || sections < 0 || HEADER_SIZE + (long) sections * SECTION_SIZE > buf.limit()) {
+            throw new IOException(path + ": corrupt header");
+        }
+
+        int[] xs = null, ys = null;
+        ByteBuffer kdData = null;
+        int kdNodes = 0;
+        for (int s = 0; s < sections; s++) {
+            int  at     = HEADER_SIZE + s * SECTION_SIZE;
+            int  type   = buf.getInt(at);
+            int  param  = buf.getInt(at + 4);
+            long offset = buf.getLong(at + 8);
+            long length = buf.getLong(at + 16);
+            if (offset < 0 || length < 0 || offset > buf.limit() - length) {
+                throw new IOException(path + ": section " + s + " out of bounds");
+            }
+            ByteBuffer section = slice((int) offset, (int) length);
+            switch (type) {
+                case COORDS:
+                    expectLength(path, s, length, 8L * n);
+                    xs = new int[n];
+                    ys = new int[n];
+                    section.asIntBuffer().get(xs).get(ys);
+                    break;
+                case COST_FLOAT:
+                case COST_INT:
+                    expectLength(path, s, length, 4 * PackedCostMatrix.entries(n));
+                    costMatrix = new MappedCostMatrix(n, section, type == COST_INT);
+                    break;
+                case NEIGHBOURS:
+                    if (param <= 0 || param >= Math.max(n, 2)) {
+                        throw new IOException(path + ": corrupt section " + s + ": " + param + " neighbours");
+                    }
+                    expectLength(path, s, length, 4L * n * param);
+                    int[] lists = new int[n * param];
+                    section.asIntBuffer().get(lists);
+                    expectCities(path, s, lists, n);
+                    neighbourLists = new NeighbourLists(n, param, lists);
+                    break;
+                case ORDER:
+                    if (length % 4 != 0 || length / 4 < n) {
+                        throw new IOException(path + ": corrupt section " + s + ": length " + length);
+                    }
+                    originalIds = new int[(int) (length / 4)];
+                    section.asIntBuffer().get(originalIds);
+                    expectCities(path, s, originalIds, originalIds.length);
+                    break;
+                case GROUPS:
+                    expectLength(path, s, length, 4L * (n + 1));
+                    groupStarts = new int[n + 1];
+                    section.asIntBuffer().get(groupStarts);
+                    break;
+                case COST_DOUBLE:
+                    expectLength(path, s, length, 8 * PackedCostMatrix.entries(n));
+                    fullCostMatrix = new FullCostMatrix(n, section);
+                    break;
+                case KDTREE:
+                    // Read once the coordinates are known
+                    kdData = section;
+                    kdNodes = param;
+                    break;
+                default:
+                    // Unknown sections are skipped so older readers can open newer files
+            }
+        }
+        if (xs == null) {
+            throw new IOException(path + ": no coordinates section");
+        }
+        if (kdData != null) {
+            try {
+                kdTree = new KdTree(xs, ys, kdNodes, kdData.asIntBuffer());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ": corrupt k-d tree: " + e.getMessage());
+            }
+        }
+        if (groupStarts != null) {
+            // Starts must rise from 0 to the end of ORDER
+            boolean valid = originalIds != null && groupStarts[0] == 0 && groupStarts[n] == originalIds.length;
+            for (int c = 0; valid && c < n; c++) {
+                valid = groupStarts[c] < groupStarts[c + 1];
+            }
+            if (!valid) {
+                throw new IOException(path + ": corrupt city groups");
+            }
+        } else if (originalIds != null && originalIds.length != n) {
+            throw new IOException(path + ": corrupt city order");
+        }
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    private static void expectLength(String path, int section, long length, long expected) throws IOException {
+        if (length != expected) {
+            throw new IOException(path + ": corrupt section " + section + ": length " + length + ", expected " + expected);
+        }
+    }
+
+    /**
+     * Checks that every entry of a section is a valid index below <code>limit</code>
+     */
+    private static void expectCities(String path, int section, int[] cities, int limit) throws IOException {
+        for (int c : cities) {
+            if (c < 0 || c >= limit) {
+                throw new IOException(path + ": corrupt section " + section + ": city " + c);
+            }
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset).limit(offset + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes a TSP to a binary file, including its cost matrix if that is a packed one and
+     * any neighbour lists it has built
+     * @param tsp the TSP to write
+     * @param path the path of the file
+     * @throws IOException
+     */
+    public static void write(TSP tsp, String path) throws IOException {
+        CostMatrix cost = tsp.getCostMatrix();
+        write(tsp, path, cost instanceof PackedCostMatrix ? (PackedCostMatrix) cost : null, tsp.getBuiltNeighbourLists());
+    }
+
+    /**
+     * Writes a TSP's coordinates and the given artifacts to a binary file
+     * @param tsp the TSP to write
+     * @param path the path of the file
+     * @param cost the cost matrix to include, or null
+     * @param neighbours the neighbour lists to include, or null
+     * @throws IOException
+     */
+    public static void write(TSP tsp, String path, PackedCostMatrix cost, NeighbourLists neighbours) throws IOException {
+        write(tsp, path, cost, neighbours, null);
+    }
+
+    /**
+     * Writes a TSP's coordinates and the given artifacts to a binary file
+     * @param tsp the TSP to write
+     * @param path the path of the file
+     * @param cost the cost matrix to include, a {@link PackedCostMatrix} or {@link FullCostMatrix}, or null
+     * @param neighbours the neighbour lists to include, or null
+     * @param kdTree the spatial index to include, or null
+     * @throws IOException
+     */
+    public static void write(TSP tsp, String path, CostMatrix cost, NeighbourLists neighbours, KdTree kdTree) throws IOException {
+        int n = tsp.size();
+        List<int[]> table = new ArrayList<>(); // {type, param}
+        List<Long> lengths = new ArrayList<>();
+
+        table.add(new int[] { COORDS, 0 });
+        lengths.add((long) n * 8);
+
+        if (tsp.getOriginalIds() != null) {
+            table.add(new int[] { ORDER, 0 });
+            lengths.add((long) tsp.getOriginalIds().length * 4);
+        }
+        if (tsp.getGroupStarts() != null) {
+            table.add(new int[] { GROUPS, 0 });
+            lengths.add((long) (n + 1) * 4);
+        }
+
+        if (cost instanceof FullCostMatrix) {
+            table.add(new int[] { COST_DOUBLE, 0 });
+            lengths.add(PackedCostMatrix.entries(n) * 8);
+        } else if (cost != null) {
+            boolean rounded = cost instanceof PackedIntCostMatrix
+                    || (cost instanceof MappedCostMatrix && ((MappedCostMatrix) cost).isRounded());
+            table.add(new int[] { rounded ? COST_INT : COST_FLOAT, 0 });
+            lengths.add(PackedCostMatrix.entries(n) * 4);
+        }
+        if (neighbours != null) {
+            table.add(new int[] { NEIGHBOURS, neighbours.getK() });
+            lengths.add((long) n * neighbours.getK() * 4);
+        }
+        if (kdTree != null) {
+            table.add(new int[] { KDTREE, kdTree.nodeCount() });
+            lengths.add(kdTree.serializedSize() * 4);
+        }
+
+        // Lay out the sections
+        long[] offsets = new long[table.size()];
+        long size = align(HEADER_SIZE + table.size() * SECTION_SIZE);
+        for (int s = 0; s < table.size(); s++) {
+            offsets[s] = size;
+            size = align(size + lengths.get(s));
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate((int) offsets[0]).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(table.size());
+            for (int s = 0; s < table.size(); s++) {
+                header.putInt(table.get(s)[0]).putInt(table.get(s)[1]).putLong(offsets[s]).putLong(lengths.get(s));
+            }
+            header.rewind();
+            channel.write(header, 0);
+
+            for (int s = 0; s < table.size(); s++) {
+                if (lengths.get(s) > Integer.MAX_VALUE) {
+                    throw new IOException(path + ": section too large for " + EXTENSION);
+                }
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, offsets[s], lengths.get(s));
+                out.order(ByteOrder.LITTLE_ENDIAN);
+                switch (table.get(s)[0]) {
+                    case COORDS:
+                        for (int i = 0; i < n; i++) {
+                            out.putInt(tsp.getX(i));
+                        }
+                        for (int i = 0; i < n; i++) {
+                            out.putInt(tsp.getY(i));
+                        }
+                        break;
+                    case COST_FLOAT:
+                    case COST_INT:
+                        ((PackedCostMatrix) cost).writeTo(out);
+                        break;
+                    case COST_DOUBLE:
+                        ((FullCostMatrix) cost).writeTo(out);
+                        break;
+                    case KDTREE:
+                        kdTree.writeTo(out.asIntBuffer());
+                        break;
+                    case NEIGHBOURS:
+                        out.asIntBuffer().put(neighbours.getNeighbours());
+                        break;
+                    case ORDER:
+                        out.asIntBuffer().put(tsp.getOriginalIds());
+                        break;
+                    case GROUPS:
+                        out.asIntBuffer().put(tsp.getGroupStarts());
+                        break;
+                }
+                out.force();
+            }
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    //// GETTERS ////
+    public int size() {
+        return n;
+    }
+    public int[] getXs() {
+        return xs;
+    }
+    public int[] getYs() {
+        return ys;
+    }
+    /**
+     * @return the stored cost matrix, or null if the file doesn't have one
+     */
+    public MappedCostMatrix getCostMatrix() {
+        return costMatrix;
+    }
+    /**
+     * @return the stored neighbour lists, or null if the file doesn't have any
+     */
+    public NeighbourLists getNeighbourLists() {
+        return neighbourLists;
+    }
+    /**
+     * @return the stored double-precision cost matrix, or null if the file doesn't have one
+     */
+    public FullCostMatrix getFullCostMatrix() {
+        return fullCostMatrix;
+    }
+    /**
+     * @return the stored spatial index, or null if the file doesn't have one
+     */
+    public KdTree getKdTree() {
+        return kdTree;
+    }
+    /**
+     * @return the original file indices of each city, or null if the cities weren't renumbered or merged
+     */
+    public int[] getOriginalIds() {
+        return originalIds;
+    }
+    /**
+     * @return the start of each city's indices in {@link #getOriginalIds()}, or null if no cities were merged
+     */
+    public int[] getGroupStarts() {
+        return groupStarts;
+    }
+
+
+    //// CONVERTER ////
+    /**
+     * Converts an instance to the binary format.
+     * Usage: TSPBinary in.tsp out.tspb [packed_float|packed_int|implicit [k]]
+     * where k is the number of neighbours per city to precompute
+     */
+    public static void main(String[] args) throws IOException {
+        TSP.DistanceMode mode = args.length > 2 ? TSP.DistanceMode.valueOf(args[2].toUpperCase()) : TSP.DistanceMode.IMPLICIT;
+        TSP tsp = new TSP(args[0], mode);
+        if (args.length > 3) {
+            tsp.getNeighbourLists(Integer.parseInt(args[3]));
+        }
+        write(tsp, args[1]);
+        System.out.println("Wrote " + tsp + " to " + args[1]);
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads TSP instance and tour files straight from a memory-mapped byte buffer.
+ *
+ * Three instance layouts are recognised from the first line of the file:
+ * <ul>
+ *     <li>PLAIN - one "x y" pair per line, optionally followed by a name (data/*.tsp, data/cities)</li>
+ *     <li>BOUNDED - a "xMin yMin xMax yMax" bounding box header, then "x y" pairs (data/USA.txt)</li>
+ *     <li>POSTCODE - "id outcode incode x y" lines (data/g7k, data/ub, ...)</li>
+ * </ul>
+ * Coordinates may be integers or decimals; decimals are truncated towards zero, which is how the
+ * bundled .tsp files were derived from their sources.
+ */
+public class TSPReader {
+    /**
+     * The layout of an instance file
+     */
+    public enum Layout { PLAIN, BOUNDED, POSTCODE }
+
+    private static final int MAX_TOKENS = 8;
+
+    private final String fname;
+    private final MappedByteBuffer buf;
+    private final int end;
+    private int pos = 0;
+    private int line = 0;
+
+    // Tokens of the current line: start/end offsets, and parsed value if numeric
+    private final int[]     tokStart = new int[MAX_TOKENS];
+    private final int[]     tokEnd   = new int[MAX_TOKENS];
+    private final double[]  tokValue = new double[MAX_TOKENS];
+    private final boolean[] tokNumeric = new boolean[MAX_TOKENS];
+    private int tokens;
+
+    private Layout layout;
+    private int[] xs = new int[1024];
+    private int[] ys = new int[1024];
+    private int n = 0;
+
+    /**
+     * Reads an instance file
+     * @param fname the path of the file
+     * @throws IOException if the file can't be read or isn't in a recognised layout
+     */
+    public TSPReader(String fname) throws IOException {
+        this.fname = fname;
+        this.buf   = map(fname);
+        this.end   = buf.limit();
+        readInstance();
+    }
+
+    /**
+     * Reads a tour file: whitespace separated city indices
+     * @param fname the path of the file
+     * @return the tour
+     * @throws IOException if the file can't be read or contains anything but integers
+     */
+    public static int[] readTour(String fname) throws IOException {
+        MappedByteBuffer buf = map(fname);
+        int[] tour = new int[1024];
+        int n = 0;
+        int pos = 0, end = buf.limit();
+        while (true) {
+            while (pos < end && isSpace(buf.get(pos))) {
+                pos++;
+            }
+            if (pos == end) {
+                break;
+            }
+            int value = 0;
+            int start = pos;
+            while (pos < end && !isSpace(buf.get(pos))) {
+                int d = buf.get(pos) - '0';
+                if (d < 0 || d > 9) {
+                    throw new IOException(fname + ": not a city index at byte " + start);
+                }
+                value = value * 10 + d;
+                pos++;
+            }
+            if (n == tour.length) {
+                tour = Arrays.copyOf(tour, n * 2);
+            }
+            tour[n++] = value;
+        }
+        return Arrays.copyOf(tour, n);
+    }
+
+    private static MappedByteBuffer map(String fname) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fname, "r")) {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void readInstance() throws IOException {
+        // Detect the layout from the first non-empty line
+        if (!nextLine()) {
+            layout = Layout.PLAIN;
+            xs = ys = new int[0];
+            return;
+        }
+        if (tokens == 4 && allNumeric()) {
+            layout = Layout.BOUNDED;
+            nextLine();
+        } else if (tokens >= 2 && tokNumeric[0] && tokNumeric[1]) {
+            layout = Layout.PLAIN;
+        } else if (tokens >= 2 && tokNumeric[tokens - 1] && tokNumeric[tokens - 2]) {
+            layout = Layout.POSTCODE;
+        } else {
+            throw new IOException(fname + ":" + line + ": unrecognised instance layout");
+        }
+
+        do {
+            int xi = layout == Layout.POSTCODE ? tokens - 2 : 0;
+            if (tokens < 2 || !tokNumeric[xi] || !tokNumeric[xi + 1]) {
+                throw new IOException(fname + ":" + line + ": expected coordinates");
+            }
+            if (n == xs.length) {
+                xs = Arrays.copyOf(xs, n * 2);
+                ys = Arrays.copyOf(ys, n * 2);
+            }
+            xs[n] = (int) tokValue[xi];
+            ys[n] = (int) tokValue[xi + 1];
+            n++;
+        } while (nextLine());
+
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+    }
+
+    /**
+     * Splits the next non-empty line into tokens
+     * @return false at the end of the file
+     */
+    private boolean nextLine() {
+        tokens = 0;
+        while (pos < end && tokens == 0) {
+            line++;
+            while (pos < end) {
+                byte b = buf.get(pos);
+                if (b == '\n') {
+                    pos++;
+                    break;
+                }
+                if (isSpace(b)) {
+                    pos++;
+                    continue;
+                }
+                int start = pos;
+                while (pos < end && !isSpace(buf.get(pos))) {
+                    pos++;
+                }
+                if (tokens < MAX_TOKENS) {
+                    tokStart[tokens] = start;
+                    tokEnd[tokens]   = pos;
+                    parseNumber(tokens);
+                    tokens++;
+                }
+            }
+        }
+        return tokens > 0;
+    }
+
+    /**
+     * Parses token t as a decimal number, setting tokNumeric[t] to whether it is one
+     */
+    private void parseNumber(int t) {
+        int i = tokStart[t], e = tokEnd[t];
+        boolean negative = false;
+        if (buf.get(i) == '-' || buf.get(i) == '+') {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long whole = 0;
+        long frac = 0, fracScale = 1;
+        boolean digits = false, point = false;
+        for (; i < e; i++) {
+            int b = buf.get(i);
+            if (b == '.' && !point) {
+                point = true;
+            } else if (b >= '0' && b <= '9') {
+                digits = true;
+                if (point) {
+                    if (fracScale < 1000000000000L) {
+                        frac = frac * 10 + (b - '0');
+                        fracScale *= 10;
+                    }
+                } else {
+                    whole = whole * 10 + (b - '0');
+                }
+            } else {
+                tokNumeric[t] = false;
+                return;
+            }
+        }
+        double value = whole + (double) frac / fracScale;
+        tokNumeric[t] = digits;
+        tokValue[t]   = negative ? -value : value;
+    }
+
+    private boolean allNumeric() {
+        for (int t = 0; t < tokens; t++) {
+            if (!tokNumeric[t]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    //// GETTERS ////
+    public Layout getLayout() {
+        return layout;
+    }
+    public int size() {
+        return n;
+    }
+    public int[] getXs() {
+        return xs;
+    }
+    public int[] getYs() {
+        return ys;
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.*;
+
+/**
+ * 3-opt local search on neighbour lists: replaces up to three tour edges at a time, including the
+ * segment insertion move (or-3opt) that swaps two adjacent paths without reversing either.
+ *
+ * Moves are built sequentially as in Lin and Kernighan's notation: the edge (t1, t2) is removed,
+ * (t2, t3) added, (t3, t4) removed and so on, and the tour is closed with an edge back to t1.
+ * Each added edge (t2, t3) or (t4, t5) goes to a nearest neighbour and must leave the partial sum
+ * of removed minus added costs (the gain) positive, which is what bounds the work per city.
+ */
+public class ThreeOpt extends LocalSearch {
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists
+     */
+    public ThreeOpt(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists());
+    }
+
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     */
+    public ThreeOpt(TSP tsp, NeighbourLists neighbours) {
+        super(tsp, neighbours);
+    }
+
+    /**
+     * Improves a tour until no 2-opt or 3-opt move shortens it
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
+    public static int[] optimize(TSP tsp, int[] tour) {
+        return new ThreeOpt(tsp).optimize(tour);
+    }
+
+    private int step(int city, boolean forward) {
+        return forward ? tour.next(city) : tour.prev(city);
+    }
+
+    /**
+     * @return whether b is on the path from a to c in the given direction
+     */
+    private boolean between(int a, int b, int c, boolean forward) {
+        return forward ? tour.between(a, b, c) : tour.between(c, b, a);
+    }
+
+    @Override
+    protected boolean improve(int t1) {
+        if (tour.size() < 8) {
+            return false;
+        }
+        int k = neighbours.getK();
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            int t2 = step(t1, forward);
+            double d12 = tsp.cost(t1, t2);
+            for (int i = 0; i < k; i++) {
+                int t3 = neighbours.get(t2, i);
+                double g1 = d12 - neighbourCosts[t2 * k + i];
+                if (g1 <= 0) {
+                    break;
+                }
+                // t4 before t3: t1 t2 ... t4 t3 ..., closable at once by 2-opt
+                int t4 = step(t3, !forward);
+                if (t4 != t2) {
+                    double g2 = g1 + tsp.cost(t3, t4);
+                    if (improves(tsp.cost(t4, t1) - g2)) {
+                        twoOptMove(t1, t2, t4, t3);
+                        touchAll(t1, t2, t3, t4);
+                        return true;
+                    }
+                    if (extendTwoOpt(t1, t2, t3, t4, g2, forward)) {
+                        return true;
+                    }
+                }
+                // t4 after t3: t1 t2 ... t3 t4 ..., needs a third exchange inside t2 .. t3
+                t4 = step(t3, forward);
+                if (t4 != t1 && segmentInsertion(t1, t2, t3, t4, g1 + tsp.cost(t3, t4), forward)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * With t1 t2 ... t4 t3 ..., removing (t1, t2) and (t4, t3) and adding (t2, t3) leaves a path
+     * from t4 to t1. Breaks it at (t5, t6), t6 being on t4's side of t5, and closes the tour with
+     * (t4, t5) and (t6, t1).
+     */
+    private boolean extendTwoOpt(int t1, int t2, int t3, int t4, double g2, boolean forward) {
+        int k = neighbours.getK();
+        for (int j = 0; j < k; j++) {
+            int t5 = neighbours.get(t4, j);
+            double g3 = g2 - neighbourCosts[t4 * k + j];
+            if (g3 <= 0) {
+                break;
+            }
+            if (t5 == t1 || t5 == t2 || t5 == t3) {
+                continue;
+            }
+            // On the path t4 -> t2 (backwards) then t3 -> t1 (forwards)
+            int t6 = between(t2, t5, t4, forward) ? step(t5, forward) : step(t5, !forward);
+            if (t6 == t1 || t6 == t2 || t6 == t3 || t6 == t4) {
+                continue;
+            }
+            double gain = g3 + tsp.cost(t5, t6) - tsp.cost(t6, t1);
+            if (improves(-gain)) {
+                twoOptMove(t1, t2, t4, t3); // now t1 t4 ... t6 t5 ... round to t1
+                twoOptMove(t1, t4, t6, t5);
+                touchAll(t1, t2, t3, t4);
+                touch(t5);
+                touch(t6);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * With t1 t2 ... t3 t4 ..., removing (t1, t2) and (t3, t4) and adding (t2, t3) closes the path
+     * t2 .. t3 into a cycle. Breaks it at (t5, t6) and rejoins it to the rest of the tour with
+     * (t4, t5) and (t6, t1). With t6 after t5 the two halves of t2 .. t3 swap places without
+     * reversal (segment insertion); with t6 before t5 both halves are reversed in place.
+     */
+    private boolean segmentInsertion(int t1, int t2, int t3, int t4, double g2, boolean forward) {
+        int k = neighbours.getK();
+        for (int j = 0; j < k; j++) {
+            int t5 = neighbours.get(t4, j);
+            double g3 = g2 - neighbourCosts[t4 * k + j];
+            if (g3 <= 0) {
+                break;
+            }
+            if (t5 == t1 || !between(t2, t5, t3, forward)) {
+                continue;
+            }
+            for (int side = 0; side < 2; side++) {
+                boolean after = side == 0;
+                if (t5 == (after ? t3 : t2)) {
+                    continue;
+                }
+                int t6 = step(t5, after == forward);
+                double gain = g3 + tsp.cost(t5, t6) - tsp.cost(t6, t1);
+                if (improves(-gain)) {
+                    if (after) {
+                        // t1 [t2 .. t5] [t6 .. t3] t4  ->  t1 [t6 .. t3] [t2 .. t5] t4
+                        twoOptMove(t1, t2, t3, t4); // t1 t3 .. t6 t5 .. t2 t4
+                        twoOptMove(t1, t3, t6, t5); // t1 t6 .. t3 t5 .. t2 t4
+                        twoOptMove(t3, t5, t2, t4);
+                    } else {
+                        // t1 [t2 .. t6] [t5 .. t3] t4  ->  t1 [t6 .. t2] [t3 .. t5] t4
+                        twoOptMove(t1, t2, t6, t5); // t1 t6 .. t2 t5 .. t3 t4
+                        twoOptMove(t2, t5, t3, t4);
+                    }
+                    touchAll(t1, t2, t3, t4);
+                    touch(t5);
+                    touch(t6);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void touchAll(int a, int b, int c, int d) {
+        touch(a);
+        touch(b);
+        touch(c);
+        touch(d);
+    }
+
+    public static void main(String args[]) throws FileNotFoundException, IOException {
+        run(args, "3opt", ThreeOpt::new);
+    }
+}
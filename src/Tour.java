@@ -0,0 +1,46 @@
+/**
+ * A tour that local search can modify in place.
+ *
+ * A tour is a cycle through every city of a {@link TSP}. It has a current direction, which is
+ * what {@link #next(int)} follows, but a {@link #reverse(int, int)} may turn the whole tour around,
+ * so callers shouldn't rely on the direction across moves.
+ */
+public interface Tour {
+    /**
+     * @return the number of cities in the tour
+     */
+    int size();
+
+    /**
+     * @return the city after a city
+     */
+    int next(int city);
+
+    /**
+     * @return the city before a city
+     */
+    int prev(int city);
+
+    /**
+     * @return whether b is on the path that starts at a and follows the tour forwards to c,
+     * ends included
+     */
+    boolean between(int a, int b, int c);
+
+    /**
+     * Reverses the path that starts at <code>from</code> and follows the tour forwards to
+     * <code>to</code>. This is the 2-opt move: with p = prev(from) and q = next(to), the edges
+     * (p, from) and (to, q) are replaced by (p, to) and (from, q). Implementations may instead
+     * reverse the rest of the tour, which makes the same cycle. Which one they reverse can depend
+     * on their internal state, so reversing a path back doesn't always restore the direction
+     * either: engines that undo moves must look at next/prev again afterwards. Running local
+     * search with the <code>tsp.check</code> system property set to true checks that every move
+     * shortens the tour.
+     */
+    void reverse(int from, int to);
+
+    /**
+     * @return the cities in tour order, starting anywhere
+     */
+    int[] toArray();
+}
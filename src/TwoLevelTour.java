@@ -0,0 +1,290 @@
+/**
+ * A {@link Tour} kept as a two-level doubly-linked list (Fredman, Johnson, McGeoch and Ostheimer,
+ * "Data structures for traveling salesmen", 1995).
+ *
+ * The tour is cut into segments of about sqrt(n) cities. Cities are linked within their segment,
+ * segments are linked into a cycle, and each segment has a reverse bit saying whether its cities
+ * are walked backwards. Reversing a path splits the segments at its ends, then flips the reverse
+ * bits of the whole segments in between and relinks them in the opposite order, so it costs
+ * O(sqrt(n)) rather than O(n). Splitting makes segments smaller and more numerous; once there
+ * are too many, the list is rebuilt with equal segments.
+ */
+public class TwoLevelTour implements Tour {
+    private final int n;
+    private final int groupSize;
+
+    // Cities: segment, sequence number and links within the segment
+    private final int[] seg;
+    private final int[] id;
+    private final int[] nxt;
+    private final int[] prv;
+
+    // Segments: ends in internal order, reverse bit, links and position in the cycle
+    private int segments;
+    private int[] first, last, segNext, segPrev, rank;
+    private boolean[] reversed;
+
+    /**
+     * @param tour the cities in tour order
+     */
+    public TwoLevelTour(int[] tour) {
+        n = tour.length;
+        groupSize = Math.max(8, (int) Math.sqrt(n));
+        seg = new int[n];
+        id  = new int[n];
+        nxt = new int[n];
+        prv = new int[n];
+        build(tour);
+    }
+
+    /**
+     * Lays the tour out in segments of groupSize cities
+     */
+    private void build(int[] tour) {
+        segments = (n + groupSize - 1) / groupSize;
+        int capacity = 3 * segments + 8;
+        first    = new int[capacity];
+        last     = new int[capacity];
+        segNext  = new int[capacity];
+        segPrev  = new int[capacity];
+        rank     = new int[capacity];
+        reversed = new boolean[capacity];
+        for (int s = 0; s < segments; s++) {
+            int lo = s * groupSize, hi = Math.min(n, lo + groupSize) - 1;
+            first[s] = tour[lo];
+            last[s]  = tour[hi];
+            segNext[s] = s + 1 == segments ? 0 : s + 1;
+            segPrev[s] = s == 0 ? segments - 1 : s - 1;
+            rank[s] = s;
+            for (int i = lo; i <= hi; i++) {
+                int c = tour[i];
+                seg[c] = s;
+                id[c]  = i;
+                nxt[c] = i < hi ? tour[i + 1] : -1;
+                prv[c] = i > lo ? tour[i - 1] : -1;
+            }
+        }
+    }
+
+    private int head(int s) {
+        return reversed[s] ? last[s] : first[s];
+    }
+
+    private int tail(int s) {
+        return reversed[s] ? first[s] : last[s];
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int next(int city) {
+        int s = seg[city];
+        if (city == tail(s)) {
+            return head(segNext[s]);
+        }
+        return reversed[s] ? prv[city] : nxt[city];
+    }
+
+    @Override
+    public int prev(int city) {
+        int s = seg[city];
+        if (city == head(s)) {
+            return tail(segPrev[s]);
+        }
+        return reversed[s] ? nxt[city] : prv[city];
+    }
+
+    /**
+     * @return a key that increases along the tour from the segment of rank 0
+     */
+    private long key(int city) {
+        int s = seg[city];
+        return ((long) rank[s] << 32) + (reversed[s] ? -id[city] : id[city]);
+    }
+
+    @Override
+    public boolean between(int a, int b, int c) {
+        long ka = key(a), kb = key(b), kc = key(c);
+        if (ka <= kc) {
+            return ka <= kb && kb <= kc;
+        }
+        return kb >= ka || kb <= kc;
+    }
+
+    @Override
+    public void reverse(int from, int to) {
+        if (next(to) == from) {
+            return; // the whole tour: the same cycle
+        }
+        if (seg[from] == seg[to]) {
+            if (key(from) <= key(to)) {
+                reverseWithin(from, to);
+            } else {
+                reverseWithin(next(to), prev(from)); // the rest of the tour is inside the segment
+            }
+            return;
+        }
+
+        // Reverse whichever side spans fewer segments
+        int spanned = rank[seg[to]] - rank[seg[from]];
+        if (spanned < 0) {
+            spanned += segments;
+        }
+        if (2 * spanned > segments) {
+            int t = from;
+            from = next(to);
+            to = prev(t);
+            if (seg[from] == seg[to] && key(from) <= key(to)) {
+                reverseWithin(from, to);
+                return;
+            }
+        }
+
+        if (segments + 2 > first.length) {
+            build(toArray());
+            reverse(from, to);
+            return;
+        }
+        splitBefore(from);
+        splitBefore(next(to));
+        reverseSegments(seg[from], seg[to]);
+    }
+
+    /**
+     * Reverses a path lying inside one segment by relinking its cities
+     */
+    private void reverseWithin(int from, int to) {
+        int s = seg[from];
+        int u = from, v = to; // ends of the path in internal order
+        if (reversed[s]) {
+            u = to;
+            v = from;
+        }
+        int before = prv[u], after = nxt[v];
+        int lo = id[u], hi = id[v];
+
+        // Walk the path, flipping each city's links and mirroring its sequence number
+        int c = u;
+        while (true) {
+            int following = nxt[c];
+            nxt[c] = prv[c];
+            prv[c] = following;
+            id[c] = lo + hi - id[c];
+            if (c == v) {
+                break;
+            }
+            c = following;
+        }
+        prv[v] = before; // v now comes first and u last
+        nxt[u] = after;
+        if (before >= 0) {
+            nxt[before] = v;
+        } else {
+            first[s] = v;
+        }
+        if (after >= 0) {
+            prv[after] = u;
+        } else {
+            last[s] = u;
+        }
+    }
+
+    /**
+     * Makes a city the head of its segment, moving the smaller part of the segment into a new one
+     */
+    private void splitBefore(int city) {
+        int s = seg[city];
+        if (city == head(s)) {
+            return;
+        }
+        // Internal order: first .. x | y .. last, with the cut between x and y
+        int x, y;
+        if (reversed[s]) {
+            x = city;
+            y = nxt[city];
+        } else {
+            x = prv[city];
+            y = city;
+        }
+        int left = id[x] - id[first[s]] + 1, right = id[last[s]] - id[y] + 1;
+
+        int t = segments++;
+        reversed[t] = reversed[s];
+        int moved;
+        if (left <= right) {
+            first[t] = first[s];
+            last[t] = x;
+            first[s] = y;
+            moved = first[t];
+        } else {
+            first[t] = y;
+            last[t] = last[s];
+            last[s] = x;
+            moved = first[t];
+        }
+        nxt[x] = -1;
+        prv[y] = -1;
+        for (int c = moved; c >= 0; c = nxt[c]) {
+            seg[c] = t;
+        }
+
+        // Link t in on the correct side of s in tour order
+        boolean tBeforeS = (left <= right) != reversed[s];
+        if (tBeforeS) {
+            int p = segPrev[s];
+            segNext[p] = t; segPrev[t] = p;
+            segNext[t] = s; segPrev[s] = t;
+        } else {
+            int q = segNext[s];
+            segNext[s] = t; segPrev[t] = s;
+            segNext[t] = q; segPrev[q] = t;
+        }
+        renumber(s);
+    }
+
+    /**
+     * Reverses the run of whole segments from a to b in tour order
+     */
+    private void reverseSegments(int a, int b) {
+        int p = segPrev[a], q = segNext[b];
+        int s = a;
+        while (true) {
+            int following = segNext[s];
+            segNext[s] = segPrev[s];
+            segPrev[s] = following;
+            reversed[s] = !reversed[s];
+            if (s == b) {
+                break;
+            }
+            s = following;
+        }
+        segNext[p] = b; segPrev[b] = p;
+        segNext[a] = q; segPrev[q] = a;
+        renumber(p);
+    }
+
+    /**
+     * Numbers the segments along the cycle, starting from any segment
+     */
+    private void renumber(int start) {
+        int s = start;
+        for (int r = 0; r < segments; r++) {
+            rank[s] = r;
+            s = segNext[s];
+        }
+    }
+
+    @Override
+    public int[] toArray() {
+        int[] order = new int[n];
+        int c = head(0);
+        for (int i = 0; i < n; i++) {
+            order[i] = c;
+            c = next(c);
+        }
+        return order;
+    }
+}
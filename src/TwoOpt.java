@@ -1,77 +1,73 @@
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
 
 /**
+ * 2-opt local search: repeatedly replaces two tour edges (a, b) and (c, d) by (a, c) and (b, d),
+ * reversing the path between them, while that shortens the tour.
+ *
+ * Moves are found from the neighbour lists: for the tour edge (a, b), only cities c with
+ * cost(a, c) &lt; cost(a, b) can give an improvement, and those are a prefix of a's neighbours.
+ * Each move is costed in O(1) and applied in place to the {@link Tour}.
+ *
  * @author David Robertson
  */
-public class TwoOpt {
-    private static int[] twoOptSwap(TSP tsp, int[] tour, int i, int k) {
-        int newTour[] = new int[tsp.size()];
-        int ni = 0;
-        for(int j = 0; j < i; j++) {
-            newTour[ni] = tour[j];
-            ni++;
-        }
-        for(int j = k; j > i; j--) {
-            newTour[ni] = tour[j];
-            ni++;
-        }
-        for(int j = k+1; j < tsp.size(); j++) {
-            newTour[ni] = tour[j];
-            ni++;
-        }
-        return newTour;
+public class TwoOpt extends LocalSearch {
+
+    /**
+     * @param tsp the TSP whose tours are improved, using its default neighbour lists
+     */
+    public TwoOpt(TSP tsp) {
+        this(tsp, tsp.getNeighbourLists());
     }
 
+    /**
+     * @param tsp the TSP whose tours are improved
+     * @param neighbours the candidate neighbours of each city
+     */
+    public TwoOpt(TSP tsp, NeighbourLists neighbours) {
+        super(tsp, neighbours);
+    }
+
+    /**
+     * Improves a tour until no 2-opt move shortens it
+     * @param tsp the TSP
+     * @param tour the cities in tour order (not modified)
+     * @return the improved tour
+     */
     public static int[] optimize(TSP tsp, int[] tour) {
-        outerLoop: {
-            while (true) {
-                double bestDistance = tsp.cost(tour);
-                for (int i = 0; i < tsp.size() - 1; i++) {
-                    for (int k = i + 1; k < tsp.size(); k++) {
-                        int newTour[] = twoOptSwap(tsp, tour, i, k);
-                        double newDistance = tsp.cost(newTour);
-                        if (newDistance < bestDistance) {
-                            tour = newTour;
-                        } else {
-                            break outerLoop;
-                        }
+        return new TwoOpt(tsp).optimize(tour);
+    }
 
-                    }
+    @Override
+    protected boolean improve(int a) {
+        int k = neighbours.getK();
+        for (int dir = 0; dir < 2; dir++) {
+            boolean forward = dir == 0;
+            int b = forward ? tour.next(a) : tour.prev(a);
+            double dab = tsp.cost(a, b);
+            for (int i = 0; i < k; i++) {
+                int c = neighbours.get(a, i);
+                double dac = neighbourCosts[a * k + i];
+                if (dac >= dab) {
+                    break; // no gain left from this edge
+                }
+                int d = forward ? tour.next(c) : tour.prev(c);
+                if (c == b || d == a) {
+                    continue;
+                }
+                double delta = dac + tsp.cost(b, d) - dab - tsp.cost(c, d);
+                if (improves(delta)) {
+                    twoOptMove(a, b, c, d);
+                    touch(b);
+                    touch(c);
+                    touch(d);
+                    return true;
                 }
             }
         }
-        return tour;
+        return false;
     }
 
     public static void main(String args[]) throws FileNotFoundException, IOException {
-        // Read in tsp
-        TSP tsp = new TSP(args[0]);
-
-        // Read in tour
-        String infile = args[1];
-        Scanner sc = new Scanner(new File(infile));
-        List<Integer> tour = new ArrayList<>();
-        while (sc.hasNext()) {
-            tour.add(sc.nextInt());
-        }
-        sc.close();
-
-        System.out.println("Pre 2opt cost: " + tsp.cost(tour.stream().mapToInt(i->i).toArray()) );
-
-        // Perform 2opt optimisation
-        int optTour[] = optimize(tsp, tour.stream().mapToInt(i->i).toArray());
-
-        System.out.println("Post 2opt cost: " + tsp.cost(optTour));
-
-        // Output optimised tour to file
-        String outfile = args[2];
-        PrintWriter fh = new PrintWriter(new FileOutputStream(outfile));
-        for (int city : optTour) {
-            fh.println(city);
-        }
-        fh.close();
+        run(args, "2opt", TwoOpt::new);
     }
 }
@@ -0,0 +1,28 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PathLengths} across the lanes of the widest vectors the CPU has. Loaded by
+ * {@link PathLengths#load()} when built and run with <code>--add-modules jdk.incubator.vector</code>;
+ * kept out of src so the rest of the solver builds without the incubator module. Lane-wise
+ * square roots are correctly rounded like Math.sqrt, so the lengths are exactly the scalar ones.
+ */
+public class VectorPathLengths implements PathLengths {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void lengths(double[] xs, double[] ys, double[] d, int m) {
+        int k = 0;
+        for (int end = SPECIES.loopBound(m); k < end; k += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, k).sub(DoubleVector.fromArray(SPECIES, xs, k + 1));
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, k).sub(DoubleVector.fromArray(SPECIES, ys, k + 1));
+            dx.mul(dx).add(dy.mul(dy)).lanewise(VectorOperators.SQRT).intoArray(d, k);
+        }
+        for (; k < m; k++) {
+            double dx = xs[k] - xs[k + 1];
+            double dy = ys[k] - ys[k + 1];
+            d[k] = Math.sqrt(dx*dx + dy*dy);
+        }
+    }
+}